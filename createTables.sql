@@ -1,8 +1,12 @@
 create table Users(
     username varchar(20) PRIMARY KEY,
+    username_normalized AS LOWER(username) PERSISTED,
     hash varbinary(1000),
     salt varbinary(1000),
-    balance int);
+    hash_algorithm varchar(40),
+    hash_iterations int);
+
+create unique index Users_Normalized on Users (username_normalized);
 
 create table PreItineraries(
     fid_one int,
@@ -16,10 +20,33 @@ create table Reservations(
     fid_two int,
     total_price int,
     username varchar(20),
-    pay int
+    pay int,
+    cancelled int DEFAULT 0,
+    cancelled_at datetime2
 );
 
-create table Cancelled(
-    re_id_cancelled int PRIMARY KEY,
+create index Reservations_Tombstones on Reservations (cancelled_at) where cancelled = 1;
+
+create table ReservationsArchive(
+    re_id int PRIMARY KEY,
+    fid_one int,
+    fid_two int,
+    total_price int,
+    username varchar(20),
+    pay int,
+    cancelled_at datetime2
 );
 
+create table LedgerEntries(
+    entry_id bigint IDENTITY(1,1),
+    username varchar(20),
+    amount int,
+    re_id int,
+    PRIMARY KEY (username, entry_id)
+);
+
+create table BalanceSnapshots(
+    username varchar(20) PRIMARY KEY,
+    balance int,
+    last_entry_id bigint
+);
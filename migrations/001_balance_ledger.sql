@@ -0,0 +1,19 @@
+-- Replaces the balance column of Users with an append-only ledger and per-user balance snapshots.
+-- Each user's current balance becomes their opening snapshot, covering no ledger entries yet.
+create table LedgerEntries(
+    entry_id bigint IDENTITY(1,1),
+    username varchar(20),
+    amount int,
+    re_id int,
+    PRIMARY KEY (username, entry_id)
+);
+
+create table BalanceSnapshots(
+    username varchar(20) PRIMARY KEY,
+    balance int,
+    last_entry_id bigint
+);
+
+insert into BalanceSnapshots (username, balance, last_entry_id) select username, ISNULL(balance, 0), 0 from Users;
+
+alter table Users drop column balance;
@@ -0,0 +1,21 @@
+-- Replaces the Cancelled table with tombstone columns on Reservations, and adds the archive the
+-- compactor moves old tombstones into. Reservations cancelled before this migration are stamped
+-- with the time it ran, so they are archived an hour later like new cancellations.
+alter table Reservations add cancelled int DEFAULT 0 WITH VALUES, cancelled_at datetime2;
+
+-- Run through exec so these statements are compiled after the columns above exist
+exec('update Reservations set cancelled = 1, cancelled_at = SYSUTCDATETIME() where re_id in (select re_id_cancelled from Cancelled);');
+
+drop table Cancelled;
+
+exec('create index Reservations_Tombstones on Reservations (cancelled_at) where cancelled = 1;');
+
+create table ReservationsArchive(
+    re_id int PRIMARY KEY,
+    fid_one int,
+    fid_two int,
+    total_price int,
+    username varchar(20),
+    pay int,
+    cancelled_at datetime2
+);
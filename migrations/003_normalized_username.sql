@@ -0,0 +1,6 @@
+-- Adds the lower-cased username column that logins and account creation look users up by.
+-- Fails if two existing usernames differ only in case; resolve those rows before running it.
+alter table Users add username_normalized AS LOWER(username) PERSISTED;
+
+-- Run through exec so the index is created after the column above exists
+exec('create unique index Users_Normalized on Users (username_normalized);');
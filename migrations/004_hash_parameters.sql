@@ -0,0 +1,6 @@
+-- Stores the algorithm and iteration count of each password hash next to it.
+-- Every hash computed before this migration used PBKDF2WithHmacSHA1 with 65536 iterations.
+alter table Users add hash_algorithm varchar(40), hash_iterations int;
+
+-- Run through exec so the statement is compiled after the columns above exist
+exec('update Users set hash_algorithm = ''PBKDF2WithHmacSHA1'', hash_iterations = 65536 where hash_algorithm is null;');
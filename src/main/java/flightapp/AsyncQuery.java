@@ -0,0 +1,98 @@
+package flightapp;
+
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking variants of the {@link Query} transactions for one {@link Session}.
+ *
+ * Every method returns at once with a future of the same response the synchronous method would
+ * give, computed on the executor this facade was created with. Independent commands can be started
+ * together and combined, e.g.
+ * <pre>
+ *   async.transaction_search(...).thenCombine(async.transaction_reservations(), ...)
+ * </pre>
+ * Commands that depend on an earlier one of the same session, such as booking an itinerary from a
+ * search, should be chained with {@code thenCompose}. The typed methods ({@link #search} and so on)
+ * complete with the result records instead of their text.
+ */
+public class AsyncQuery {
+  // Runs commands for facades created without an executor; one cheap virtual thread per command
+  private static final ExecutorService DEFAULT_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+  private final FlightEngine engine;
+  private final Session session;
+  private final Executor executor;
+
+  public AsyncQuery(FlightEngine engine, Session session, Executor executor) {
+    this.engine = engine;
+    this.session = session;
+    this.executor = executor;
+  }
+
+  public AsyncQuery(FlightEngine engine, Session session) {
+    this(engine, session, DEFAULT_EXECUTOR);
+  }
+
+  public Session getSession() {
+    return session;
+  }
+
+  public CompletableFuture<String> transaction_login(String username, String password) {
+    return CompletableFuture.supplyAsync(
+        () -> engine.transaction_login(session, username, password), executor);
+  }
+
+  public CompletableFuture<String> transaction_resume(String token) {
+    return CompletableFuture.supplyAsync(() -> engine.transaction_resume(session, token), executor);
+  }
+
+  public CompletableFuture<String> transaction_createCustomer(String username, String password,
+      int initAmount) {
+    return CompletableFuture.supplyAsync(
+        () -> engine.transaction_createCustomer(session, username, password, initAmount), executor);
+  }
+
+  public CompletableFuture<String> transaction_search(String originCity, String destinationCity,
+      boolean directFlight, int dayOfMonth, int numberOfItineraries) {
+    return CompletableFuture.supplyAsync(() -> engine.transaction_search(session, originCity,
+        destinationCity, directFlight, dayOfMonth, numberOfItineraries), executor);
+  }
+
+  public CompletableFuture<String> transaction_book(int itineraryId) {
+    return CompletableFuture.supplyAsync(() -> engine.transaction_book(session, itineraryId), executor);
+  }
+
+  public CompletableFuture<String> transaction_pay(int reservationId) {
+    return CompletableFuture.supplyAsync(() -> engine.transaction_pay(session, reservationId), executor);
+  }
+
+  public CompletableFuture<String> transaction_reservations() {
+    return CompletableFuture.supplyAsync(() -> engine.transaction_reservations(session), executor);
+  }
+
+  public CompletableFuture<String> transaction_cancel(int reservationId) {
+    return CompletableFuture.supplyAsync(() -> engine.transaction_cancel(session, reservationId), executor);
+  }
+
+  public CompletableFuture<SearchResult> search(String originCity, String destinationCity,
+      boolean directFlight, int dayOfMonth, int numberOfItineraries) {
+    return CompletableFuture.supplyAsync(() -> engine.search(session, originCity, destinationCity,
+        directFlight, dayOfMonth, numberOfItineraries), executor);
+  }
+
+  public CompletableFuture<BookingOutcome> book(int itineraryId) {
+    return CompletableFuture.supplyAsync(() -> engine.book(session, itineraryId), executor);
+  }
+
+  public CompletableFuture<PaymentOutcome> pay(int reservationId) {
+    return CompletableFuture.supplyAsync(() -> engine.pay(session, reservationId), executor);
+  }
+
+  public CompletableFuture<ReservationsResult> reservations() {
+    return CompletableFuture.supplyAsync(() -> engine.reservations(session), executor);
+  }
+
+  public CompletableFuture<CancelOutcome> cancel(int reservationId) {
+    return CompletableFuture.supplyAsync(() -> engine.cancel(session, reservationId), executor);
+  }
+}
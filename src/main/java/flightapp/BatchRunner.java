@@ -0,0 +1,175 @@
+package flightapp;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs scripted commands without the interactive menu.
+ *
+ * Scripts use the format of the test cases under {@code cases/}: each block of commands ended by a
+ * {@code *} line is one session, and the expected results that follow it up to the next {@code *}
+ * are skipped. Lines starting with {@code #} and anything after a {@code #} are comments. A script
+ * with no {@code *} at all, like a plain list of commands piped in, is a single session. A session
+ * ends at its last command or at {@code quit}.
+ *
+ * With one worker the sessions run one after another in script order, so later sessions can rely on
+ * what earlier ones did. With more, they run in parallel and should be independent of each other.
+ * Each session's responses are printed together once it ends; the throughput report goes to
+ * standard error.
+ */
+public class BatchRunner {
+  public static final String WORKERS_PROPERTY = "flightapp.batch.workers";
+  public static final String REPEAT_PROPERTY = "flightapp.batch.repeat";
+  public static final String QUIET_PROPERTY = "flightapp.batch.quiet";
+
+  static final String COMMENTS = "#";
+  static final String DELIMITER = "*";
+
+  private final FlightEngine engine;
+  private final int workers;
+  private final int repeat;
+  private final boolean quiet;
+
+  // Time spent running each kind of command, by command name
+  private final Map<String, LatencyStats> commandTime = new ConcurrentSkipListMap<>();
+
+  /**
+   * @param workers sessions run at once
+   * @param repeat  times the whole script is run
+   * @param quiet   if true, responses are not printed, only the report
+   */
+  public BatchRunner(FlightEngine engine, int workers, int repeat, boolean quiet) {
+    this.engine = engine;
+    this.workers = workers;
+    this.repeat = repeat;
+    this.quiet = quiet;
+  }
+
+  /**
+   * Returns a runner configured by system properties: one worker, one run and printed responses
+   * unless they say otherwise.
+   */
+  public static BatchRunner withSystemProperties(FlightEngine engine) {
+    return new BatchRunner(engine, Integer.getInteger(WORKERS_PROPERTY, 1),
+        Integer.getInteger(REPEAT_PROPERTY, 1), Boolean.getBoolean(QUIET_PROPERTY));
+  }
+
+  /**
+   * Splits a script into the commands of each session.
+   */
+  static List<List<String>> readSessions(BufferedReader in) throws IOException {
+    List<List<String>> sessions = new ArrayList<>();
+    List<String> commands = new ArrayList<>();
+    boolean isCmd = true;
+    String l;
+    while ((l = in.readLine()) != null) {
+      if (l.startsWith(COMMENTS)) {
+        continue;
+      } else if (l.startsWith(DELIMITER)) {
+        if (isCmd && !commands.isEmpty()) {
+          sessions.add(commands);
+          commands = new ArrayList<>();
+        }
+        isCmd = !isCmd;
+      } else if (isCmd) {
+        l = l.split(COMMENTS, 2)[0];
+        if (!l.isBlank()) {
+          commands.add(l);
+        }
+      }
+    }
+    if (!commands.isEmpty()) {
+      sessions.add(commands);
+    }
+    return sessions;
+  }
+
+  /**
+   * Runs every session of the script {@code repeat} times, printing responses to {@code out} and
+   * the report to {@code report}.
+   */
+  public void run(List<List<String>> sessions, PrintStream out, PrintStream report)
+      throws InterruptedException {
+    long start = System.nanoTime();
+    long commands = 0;
+    if (workers <= 1) {
+      for (int i = 0; i < repeat; i++) {
+        for (List<String> session : sessions) {
+          commands += runSession(session, out);
+        }
+      }
+    } else {
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      try {
+        List<Future<Integer>> runs = new ArrayList<>();
+        for (int i = 0; i < repeat; i++) {
+          for (List<String> session : sessions) {
+            runs.add(pool.submit(() -> runSession(session, out)));
+          }
+        }
+        for (Future<Integer> run : runs) {
+          commands += run.get();
+        }
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Session failed", e.getCause());
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+    long elapsedNanos = System.nanoTime() - start;
+
+    double seconds = elapsedNanos / 1e9;
+    long sessionsRun = (long) sessions.size() * repeat;
+    report.println(String.format(
+        "%d commands in %d sessions on %d worker(s) in %.3f s: %.1f commands/s, %.1f sessions/s",
+        commands, sessionsRun, Math.max(workers, 1), seconds, commands / seconds,
+        sessionsRun / seconds));
+    for (Map.Entry<String, LatencyStats> e : commandTime.entrySet()) {
+      report.println(String.format("%-15s %s", e.getKey(), e.getValue()));
+    }
+  }
+
+  /**
+   * Runs one session's commands on a fresh session, returning how many ran.
+   */
+  private int runSession(List<String> commands, PrintStream out) {
+    Session session = new Session();
+    StringBuilder sb = new StringBuilder();
+    String[] name = new String[1];
+    int ran = 0;
+    try {
+      for (String command : commands) {
+        String token = session.getSessionToken();
+        long start = System.nanoTime();
+        String response = CommandDispatcher.execute(engine, session, command);
+        long nanos = System.nanoTime() - start;
+        ran++;
+        if (CommandDispatcher.tokenize(command, name) > 0) {
+          commandTime.computeIfAbsent(name[0], k -> new LatencyStats()).record(nanos);
+        }
+        if (!quiet) {
+          sb.append(response);
+          if (!response.endsWith("\n")) {
+            sb.append("\n");
+          }
+          if (session.getSessionToken() != null && !session.getSessionToken().equals(token)) {
+            sb.append("Session token: ").append(session.getSessionToken()).append("\n");
+          }
+        }
+        if (response.equals(FlightServer.GOODBYE)) {
+          break;
+        }
+      }
+    } finally {
+      session.reset();
+    }
+    if (!quiet) {
+      synchronized (out) {
+        out.print(sb);
+        out.flush();
+      }
+    }
+    return ran;
+  }
+}
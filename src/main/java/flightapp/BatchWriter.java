@@ -0,0 +1,74 @@
+package flightapp;
+
+import java.sql.*;
+
+/**
+ * Sends the rows written through one prepared statement to the database in batches instead of
+ * one round trip per row.
+ *
+ * {@link #add(Object...)} queues a row's parameters with addBatch. The queued rows are sent once
+ * {@code maxBatchSize} of them are waiting, or once the oldest of them has waited
+ * {@code maxDelayMillis}, whichever comes first. Callers must {@link #flush()} before reading
+ * anything the queued rows would change. How long each batch took is recorded in the given stats.
+ *
+ * Like the statement it wraps, a writer is used by one thread for the length of one command.
+ */
+class BatchWriter {
+  private final PreparedStatement statement;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final LatencyStats batchTime;
+
+  private int pending = 0;
+  private long oldestPending;
+
+  BatchWriter(PreparedStatement statement, int maxBatchSize, long maxDelayMillis,
+      LatencyStats batchTime) throws SQLException {
+    this.statement = statement;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = maxDelayMillis * 1000000;
+    this.batchTime = batchTime;
+    statement.clearBatch();
+  }
+
+  /**
+   * Queues a row, sending the batch if it is full or has waited long enough.
+   */
+  void add(Object... params) throws SQLException {
+    statement.clearParameters();
+    for (int i = 0; i < params.length; i++) {
+      statement.setObject(i + 1, params[i]);
+    }
+    statement.addBatch();
+    if (pending++ == 0) {
+      oldestPending = System.nanoTime();
+    }
+    if (pending >= maxBatchSize || System.nanoTime() - oldestPending >= maxDelayNanos) {
+      flush();
+    }
+  }
+
+  /**
+   * Sends every queued row, returning the update count of each.
+   */
+  int[] flush() throws SQLException {
+    if (pending == 0) {
+      return new int[0];
+    }
+    long start = System.nanoTime();
+    try {
+      return statement.executeBatch();
+    } finally {
+      batchTime.record(System.nanoTime() - start);
+      pending = 0;
+      statement.clearBatch();
+    }
+  }
+
+  /**
+   * Number of rows queued but not sent yet.
+   */
+  int pending() {
+    return pending;
+  }
+}
@@ -0,0 +1,31 @@
+package flightapp;
+
+/**
+ * Result of booking an itinerary from the session's last search.
+ *
+ * @param reservationId the new reservation's ID if the status is {@code BOOKED}, otherwise 0
+ */
+public record BookingOutcome(Status status, int itineraryId, int reservationId)
+    implements FlightResult {
+  public enum Status { BOOKED, NOT_LOGGED_IN, NO_SUCH_ITINERARY, SAME_DAY, FAILED }
+
+  public static BookingOutcome of(Status status, int itineraryId) {
+    return new BookingOutcome(status, itineraryId, 0);
+  }
+
+  @Override
+  public String render() {
+    switch (status) {
+      case BOOKED:
+        return "Booked flight(s), reservation ID: " + reservationId + "\n";
+      case NOT_LOGGED_IN:
+        return "Cannot book reservations, not logged in\n";
+      case NO_SUCH_ITINERARY:
+        return "No such itinerary " + itineraryId + "\n";
+      case SAME_DAY:
+        return "You cannot book two flights in the same day\n";
+      default:
+        return "Booking failed\n";
+    }
+  }
+}
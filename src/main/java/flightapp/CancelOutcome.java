@@ -0,0 +1,20 @@
+package flightapp;
+
+/**
+ * Result of cancelling a reservation.
+ */
+public record CancelOutcome(Status status, int reservationId) implements FlightResult {
+  public enum Status { CANCELLED, NOT_LOGGED_IN, FAILED }
+
+  @Override
+  public String render() {
+    switch (status) {
+      case CANCELLED:
+        return "Canceled reservation " + reservationId + "\n";
+      case NOT_LOGGED_IN:
+        return "Cannot cancel reservations, not logged in\n";
+      default:
+        return "Failed to cancel reservation " + reservationId + "\n";
+    }
+  }
+}
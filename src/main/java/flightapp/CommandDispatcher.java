@@ -0,0 +1,193 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * Turns a command line into the engine call it asks for.
+ *
+ * The line is split into tokens in one pass over its characters: a token is either a run of
+ * non-whitespace characters or, when it starts with a double quote that is closed later on the
+ * line, everything between the quotes. The first token names the command, which is looked up in a
+ * table; each entry knows how many tokens the command takes, the error to give when it gets a
+ * different number, and the handler that runs it.
+ */
+final class CommandDispatcher {
+  // Most tokens any command takes; further tokens are counted but not kept
+  static final int MAX_TOKENS = 6;
+
+  /**
+   * A parsed command, ready to run for a session.
+   */
+  interface Call {
+    String run(FlightEngine engine, Session session);
+  }
+
+  private interface Handler {
+    String run(FlightEngine engine, Session session, String[] tokens);
+  }
+
+  /**
+   * @param tokens number of tokens including the command name, or -1 if any number will do
+   */
+  private record Command(int tokens, Call usage, Handler handler) {
+    Command(int tokens, String usage, Handler handler) {
+      this(tokens, (engine, session) -> usage, handler);
+    }
+
+    Command(Handler handler) {
+      this(-1, (Call) null, handler);
+    }
+  }
+
+  private static final Call EMPTY = (engine, session) -> "Please enter a command";
+
+  private static final Map<String, Command> COMMANDS = Map.ofEntries(
+      Map.entry("login", new Command(3, "Error: Please provide a username and password",
+          (engine, session, t) -> engine.transaction_login(session, t[1], t[2]))),
+      Map.entry("resume", new Command(2, "Error: Please provide a session token",
+          (engine, session, t) -> engine.transaction_resume(session, t[1]))),
+      Map.entry("create", new Command(4, "Error: Please provide a username, password, and initial amount in the account",
+          (engine, session, t) -> engine.transaction_createCustomer(session, t[1], t[2], Integer.parseInt(t[3])))),
+      Map.entry("search", new Command(6, "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>",
+          CommandDispatcher::search)),
+      Map.entry("book", new Command(2, "Error: Please provide an itinerary_id",
+          (engine, session, t) -> engine.transaction_book(session, Integer.parseInt(t[1])))),
+      Map.entry("reservations", new Command((engine, session, t) -> engine.transaction_reservations(session))),
+      Map.entry("pay", new Command(2, "Error: Please provide a reservation_id",
+          (engine, session, t) -> engine.transaction_pay(session, Integer.parseInt(t[1])))),
+      Map.entry("cancel", new Command(2, "Error: Please provide a reservation_id",
+          (engine, session, t) -> engine.transaction_cancel(session, Integer.parseInt(t[1])))),
+      Map.entry("metrics", new Command((engine, session, t) -> Metrics.dump())),
+      Map.entry("trace", new Command(2, "Error: Please say trace on or trace off",
+          CommandDispatcher::trace)),
+      Map.entry("quit", new Command((engine, session, t) -> {
+        engine.logout(session);
+        return "Goodbye\n";
+      })));
+
+  private CommandDispatcher() {
+  }
+
+  /**
+   * Parses the command and runs it for the session, tracing it if the session asked for traces or
+   * the command is sampled for the trace file.
+   */
+  static String execute(FlightEngine engine, Session session, CharSequence command) {
+    boolean sampled = Trace.sample();
+    if (!session.isTracing() && !sampled) {
+      return parse(command).run(engine, session);
+    }
+    String[] name = new String[1];
+    tokenize(command, name);
+    Trace trace = Trace.start(name[0] == null ? "" : name[0], sampled);
+    String response;
+    try {
+      response = parse(command).run(engine, session);
+    } finally {
+      trace.stop();
+    }
+    if (!session.isTracing()) {
+      return response;
+    }
+    return response + (response.endsWith("\n") ? "" : "\n") + trace.summary() + "\n";
+  }
+
+  /**
+   * Parses the command and looks up its handler, without running it. Malformed commands parse to a
+   * call that just returns the error.
+   */
+  static Call parse(CharSequence command) {
+    String[] tokens = new String[MAX_TOKENS];
+    int count = tokenize(command, tokens);
+    if (count == 0) {
+      return EMPTY;
+    }
+    Command c = COMMANDS.get(tokens[0]);
+    if (c == null) {
+      String error = "Error: unrecognized command '" + tokens[0] + "'";
+      return (engine, session) -> error;
+    }
+    if (c.tokens() >= 0 && count != c.tokens()) {
+      return c.usage();
+    }
+    return (engine, session) -> c.handler().run(engine, session, tokens);
+  }
+
+  private static String search(FlightEngine engine, Session session, String[] t) {
+    boolean direct = t[3].equals("1");
+    try {
+      int day = Integer.parseInt(t[4]);
+      int count = Integer.parseInt(t[5]);
+      return engine.transaction_search(session, t[1], t[2], direct, day, count);
+    } catch (NumberFormatException e) {
+      return "Failed to parse integer";
+    }
+  }
+
+  private static String trace(FlightEngine engine, Session session, String[] t) {
+    if (t[1].equals("on") || t[1].equals("off")) {
+      session.tracing = t[1].equals("on");
+      return "Tracing " + t[1] + "\n";
+    }
+    return "Error: Please say trace on or trace off";
+  }
+
+  /**
+   * Splits the command into tokens, storing the first {@code tokens.length} of them.
+   *
+   * Leading and trailing control characters and spaces are ignored, as {@link String#trim()}
+   * would; between them, tokens are separated by the characters regular expressions call
+   * whitespace.
+   *
+   * @return the number of tokens on the line, which may exceed the number stored
+   */
+  static int tokenize(CharSequence command, String[] tokens) {
+    int end = command.length();
+    while (end > 0 && command.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    int i = 0;
+    while (i < end && command.charAt(i) <= ' ') {
+      i++;
+    }
+    int count = 0;
+    while (i < end) {
+      if (isWhitespace(command.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      int stop;
+      int close = command.charAt(i) == '"' ? indexOf(command, '"', i + 1, end) : -1;
+      if (close >= 0) {
+        start = i + 1;
+        stop = close;
+        i = close + 1;
+      } else {
+        while (i < end && !isWhitespace(command.charAt(i))) {
+          i++;
+        }
+        stop = i;
+      }
+      if (count < tokens.length) {
+        tokens[count] = command.subSequence(start, stop).toString();
+      }
+      count++;
+    }
+    return count;
+  }
+
+  private static int indexOf(CharSequence s, char c, int from, int end) {
+    for (int i = from; i < end; i++) {
+      if (s.charAt(i) == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  // The characters \s matches in a regular expression
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+  }
+}
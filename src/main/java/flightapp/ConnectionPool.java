@@ -0,0 +1,515 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Bounded pool of database connections shared by every session that uses the same database.
+ *
+ * Sessions borrow a connection for the length of one transaction and hand it back afterwards,
+ * so idle sessions hold no connection at all. The pool
+ * <ul>
+ * <li>opens at most {@code maxSize} connections and makes borrowers wait up to
+ * {@code borrowTimeoutMillis} for one,</li>
+ * <li>validates connections that have been idle for a while before handing them out,</li>
+ * <li>closes connections older than {@code maxLifetimeMillis} instead of reusing them,</li>
+ * <li>reports, with the borrower's stack trace, any connection held longer than
+ * {@code leakThresholdMillis},</li>
+ * <li>keeps up to {@code statementCacheSize} statements prepared on each connection, preparing
+ * each one when it is first used, and</li>
+ * <li>records how long borrowers waited.</li>
+ * </ul>
+ */
+public class ConnectionPool {
+  // Connections idle for longer than this are checked with isValid() before being handed out
+  private static final long VALIDATE_AFTER_IDLE_MILLIS = 30000;
+  private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+  // Pools by JDBC URL, so that sessions against the same database share one
+  private static final ConcurrentHashMap<String, ConnectionPool> SHARED = new ConcurrentHashMap<>();
+
+  /**
+   * Where to connect and how to size the pool.
+   */
+  public static class Config {
+    public final String url;
+    public int maxSize = 10;
+    public long maxLifetimeMillis = 30 * 60 * 1000;
+    public long leakThresholdMillis = 60 * 1000;
+    public long borrowTimeoutMillis = 30 * 1000;
+    public int statementCacheSize = 64;
+
+    // Lets the driver send batched inserts as a bulk copy instead of one INSERT per row
+    public boolean bulkCopyForBatchInsert = false;
+
+    // For a read-only copy of the database: connections are marked read-only and read committed data
+    public boolean readOnly = false;
+
+    public Config(String url) {
+      this.url = url;
+    }
+
+    /**
+     * Reads the optional flightapp.pool.* settings, keeping the defaults for those not given.
+     */
+    public Config withProperties(Properties props) {
+      maxSize = Integer.parseInt(props.getProperty("flightapp.pool.max_size", "" + maxSize));
+      maxLifetimeMillis = Long.parseLong(
+          props.getProperty("flightapp.pool.max_lifetime_ms", "" + maxLifetimeMillis));
+      leakThresholdMillis = Long.parseLong(
+          props.getProperty("flightapp.pool.leak_threshold_ms", "" + leakThresholdMillis));
+      borrowTimeoutMillis = Long.parseLong(
+          props.getProperty("flightapp.pool.borrow_timeout_ms", "" + borrowTimeoutMillis));
+      statementCacheSize = Integer.parseInt(
+          props.getProperty("flightapp.pool.statement_cache_size", "" + statementCacheSize));
+      bulkCopyForBatchInsert = Boolean.parseBoolean(
+          props.getProperty("flightapp.pool.bulk_copy_batch_insert", "" + bulkCopyForBatchInsert));
+      return this;
+    }
+
+    /**
+     * Opens a new connection that is not managed by any pool.
+     */
+    public Connection openConnection() throws SQLException {
+      Properties driverProps = new Properties();
+      driverProps.setProperty("useBulkCopyForBatchInsert", "" + bulkCopyForBatchInsert);
+      Connection conn = DriverManager.getConnection(url, driverProps);
+
+      // By default, automatically commit after each statement
+      conn.setAutoCommit(true);
+
+      if (readOnly) {
+        conn.setReadOnly(true);
+        conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      } else {
+        // By default, set the transaction isolation level to serializable
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+      }
+
+      return conn;
+    }
+  }
+
+  /**
+   * A connection checked out of the pool, along with the statements prepared on it.
+   *
+   * The connection and statements handed out are thin wrappers that keep track of whether a
+   * transaction is open: a statement executed outside auto-commit mode opens one, and commit,
+   * rollback or switching auto-commit back on closes it. That tells whoever returns the connection
+   * whether work was left uncommitted without asking the server. The wrappers also time every
+   * statement execution and count round trips, deadlocks and rollbacks in {@link Metrics}, and
+   * emit the {@link FlightEvents} for transactions and statements while a recording wants them.
+   */
+  public static class PooledConnection {
+    private final Connection conn;
+    private final Config config;
+    private final Connection tracked;
+    private final StatementCache statements;
+    private final long createdMillis = System.currentTimeMillis();
+    private long lastUsedMillis = createdMillis;
+    private volatile long borrowedMillis;
+    private volatile Throwable borrowedAt;
+    private boolean inTransaction = false;
+    private FlightEvents.Transaction transaction = null;
+    // Queries run on this connection whose rows may still be being read
+    private final List<StatementExecution> reading = new ArrayList<>();
+
+    private PooledConnection(Connection conn, Config config, StatementCache.Stats stats) {
+      this.conn = conn;
+      this.config = config;
+      this.tracked = new TrackedConnection(conn);
+      this.statements = new StatementCache(conn, config.statementCacheSize, stats,
+          TrackedStatement::new);
+    }
+
+    /**
+     * The connection handed out: commit, rollback and switching auto-commit back on end the open
+     * transaction, and commit and rollback count as round trips.
+     */
+    private final class TrackedConnection extends DelegatingConnection {
+      TrackedConnection(Connection conn) {
+        super(conn);
+      }
+
+      @Override
+      public void commit() throws SQLException {
+        Metrics.roundTrip();
+        StatementExecution.stopClocks();
+        long start = System.nanoTime();
+        try {
+          conn.commit();
+        } finally {
+          Trace.roundTrip("commit", start, System.nanoTime() - start);
+        }
+        endTransaction("commit");
+      }
+
+      @Override
+      public void rollback() throws SQLException {
+        Metrics.roundTrip();
+        if (inTransaction) {
+          Metrics.rollback();
+        }
+        StatementExecution.stopClocks();
+        long start = System.nanoTime();
+        try {
+          conn.rollback();
+        } finally {
+          Trace.roundTrip("rollback", start, System.nanoTime() - start);
+        }
+        endTransaction("rollback");
+      }
+
+      @Override
+      public void setAutoCommit(boolean autoCommit) throws SQLException {
+        conn.setAutoCommit(autoCommit);
+        if (autoCommit) {
+          endTransaction("commit");
+        }
+      }
+    }
+
+    /**
+     * A statement handed out: executing it outside auto-commit mode marks a transaction open, and
+     * every execution is timed under the statement's name. While the slow log is on, the parameters
+     * bound to it are kept to log along with a slow execution.
+     */
+    private final class TrackedStatement extends DelegatingPreparedStatement {
+      private final String sql;
+      private final String name;
+      // The parameters bound so far, by index from 1, or null while the slow log is off
+      private Object[] bound;
+      // The last query run by this statement, until all its rows are read
+      private StatementExecution lastQuery;
+
+      TrackedStatement(String sql, PreparedStatement statement) {
+        super(statement);
+        this.sql = sql;
+        this.name = Metrics.statementName(sql);
+        this.bound = SlowLog.get().enabled() ? new Object[8] : null;
+      }
+
+      @Override
+      protected void parameterSet(int parameterIndex, Object value) {
+        if (bound == null || parameterIndex <= 0) {
+          return;
+        }
+        if (parameterIndex >= bound.length) {
+          bound = Arrays.copyOf(bound, Math.max(parameterIndex + 1, bound.length * 2));
+        }
+        bound[parameterIndex] = value;
+      }
+
+      @Override
+      protected void parametersCleared() {
+        if (bound != null) {
+          Arrays.fill(bound, null);
+        }
+      }
+
+      @Override
+      protected <T> T run(Execution<T> execution) throws SQLException {
+        if (!conn.getAutoCommit()) {
+          beginTransaction();
+        }
+        if (lastQuery != null) {
+          // Running the statement again closes the previous result set
+          lastQuery.finish();
+          lastQuery = null;
+        }
+        StatementExecution.stopClocks();
+        reading.removeIf(StatementExecution::finished);
+        FlightEvents.Statement event = new FlightEvents.Statement();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+          T result = execution.execute();
+          if (event.isEnabled() || bound != null) {
+            StatementExecution followed = new StatementExecution(name, sql,
+                bound != null ? bound.clone() : null, config, event.isEnabled() ? event : null,
+                start);
+            result = followed.completed(result);
+            if (result instanceof ResultSet) {
+              lastQuery = followed;
+              reading.add(followed);
+            }
+          }
+          return result;
+        } catch (SQLException e) {
+          if (e.getErrorCode() == 1205) {
+            Metrics.deadlock();
+          }
+          throw e;
+        } finally {
+          long nanos = System.nanoTime() - start;
+          Metrics.recordStatement(name, nanos);
+          Trace.roundTrip(name, start, nanos);
+        }
+      }
+    }
+
+    private void beginTransaction() {
+      if (!inTransaction) {
+        inTransaction = true;
+        FlightEvents.Transaction event = new FlightEvents.Transaction();
+        if (event.isEnabled()) {
+          event.begin();
+          transaction = event;
+        }
+      }
+      if (transaction != null) {
+        transaction.statements++;
+      }
+    }
+
+    /**
+     * Reports the queries whose rows were not all read, with the rows read so far.
+     */
+    private void finishReading() {
+      for (StatementExecution query : reading) {
+        query.finish();
+      }
+      reading.clear();
+    }
+
+    private void endTransaction(String outcome) {
+      inTransaction = false;
+      if (transaction != null) {
+        transaction.outcome = outcome;
+        transaction.retries = Metrics.operationRetries();
+        transaction.commit();
+        transaction = null;
+      }
+    }
+
+    public Connection getConnection() {
+      return tracked;
+    }
+
+    /**
+     * Whether a statement has run since the last commit or rollback without auto-commit on.
+     */
+    public boolean inTransaction() {
+      return inTransaction;
+    }
+
+    /**
+     * Returns the statement for the given SQL, preparing it on this connection the first time it is
+     * used since it was opened or last evicted.
+     */
+    public PreparedStatement statement(String sql) throws SQLException {
+      return statements.get(sql);
+    }
+  }
+
+  private final Config config;
+  private final StatementCache.Stats statementStats = new StatementCache.Stats();
+  private final Semaphore permits;
+  private final Deque<PooledConnection> idle = new ArrayDeque<>();
+  private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+  private final ScheduledExecutorService leakDetector;
+
+  private final LatencyStats waitTime = new LatencyStats();
+  private final AtomicLong opened = new AtomicLong();
+  private final AtomicLong closed = new AtomicLong();
+  private final AtomicLong leaks = new AtomicLong();
+
+  public ConnectionPool(Config config) {
+    this.config = config;
+    this.permits = new Semaphore(config.maxSize, true);
+    this.leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "connection-leak-detector");
+      t.setDaemon(true);
+      return t;
+    });
+    long period = Math.max(1000, config.leakThresholdMillis / 2);
+    leakDetector.scheduleAtFixedRate(this::reportLeaks, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the pool shared by everyone connecting with the same URL, creating it on first use.
+   */
+  public static ConnectionPool shared(Config config) {
+    return SHARED.computeIfAbsent(config.url, url -> new ConnectionPool(config));
+  }
+
+  /**
+   * Checks out a connection, waiting for one to be released if the pool is at its maximum size.
+   * The connection is in auto-commit mode. Every borrowed connection must be passed to
+   * {@link #release(PooledConnection)} exactly once.
+   *
+   * @throws SQLException if no connection became available within the borrow timeout
+   */
+  public PooledConnection borrow() throws SQLException {
+    long start = System.nanoTime();
+    try {
+      if (!permits.tryAcquire(config.borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLException("Timed out after " + config.borrowTimeoutMillis
+            + " ms waiting for a database connection");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a database connection", e);
+    } finally {
+      waitTime.record(System.nanoTime() - start);
+    }
+
+    try {
+      PooledConnection pc = takeUsableIdle();
+      if (pc == null) {
+        pc = open();
+      }
+      pc.borrowedMillis = System.currentTimeMillis();
+      pc.borrowedAt = new Throwable("Connection borrowed here");
+      borrowed.add(pc);
+      return pc;
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a connection to the pool. A transaction left open on it is rolled back.
+   */
+  public void release(PooledConnection pc) {
+    if (!borrowed.remove(pc)) {
+      throw new IllegalStateException("Connection released twice or not from this pool");
+    }
+    try {
+      pc.finishReading();
+      pc.statements.closeEvicted();
+      long now = System.currentTimeMillis();
+      if (now - pc.createdMillis > config.maxLifetimeMillis) {
+        close(pc);
+        return;
+      }
+      try {
+        if (!pc.conn.getAutoCommit()) {
+          pc.conn.rollback();
+          pc.conn.setAutoCommit(true);
+        }
+        pc.endTransaction("rollback");
+      } catch (SQLException e) {
+        close(pc);
+        return;
+      }
+      pc.lastUsedMillis = now;
+      pc.borrowedAt = null;
+      synchronized (idle) {
+        idle.addFirst(pc);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Takes the most recently used idle connection that is still young enough and working, closing
+   * any that are not.
+   */
+  private PooledConnection takeUsableIdle() {
+    while (true) {
+      PooledConnection pc;
+      synchronized (idle) {
+        pc = idle.pollFirst();
+      }
+      if (pc == null) {
+        return null;
+      }
+      long now = System.currentTimeMillis();
+      if (now - pc.createdMillis > config.maxLifetimeMillis) {
+        close(pc);
+        continue;
+      }
+      if (now - pc.lastUsedMillis > VALIDATE_AFTER_IDLE_MILLIS) {
+        boolean valid;
+        try {
+          valid = pc.conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+          valid = false;
+        }
+        if (!valid) {
+          close(pc);
+          continue;
+        }
+      }
+      return pc;
+    }
+  }
+
+  private PooledConnection open() throws SQLException {
+    Connection conn = config.openConnection();
+    opened.incrementAndGet();
+    return new PooledConnection(conn, config, statementStats);
+  }
+
+  private void close(PooledConnection pc) {
+    closed.incrementAndGet();
+    try {
+      pc.conn.close();
+    } catch (SQLException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void reportLeaks() {
+    long now = System.currentTimeMillis();
+    for (PooledConnection pc : borrowed) {
+      Throwable borrowedAt = pc.borrowedAt;
+      if (borrowedAt != null && now - pc.borrowedMillis > config.leakThresholdMillis) {
+        leaks.incrementAndGet();
+        System.err.println("Possible connection leak: connection held for "
+            + (now - pc.borrowedMillis) + " ms");
+        borrowedAt.printStackTrace();
+        // Report each borrow only once
+        pc.borrowedAt = null;
+      }
+    }
+  }
+
+  /**
+   * Time borrowers spent waiting for a connection.
+   */
+  public LatencyStats waitTime() {
+    return waitTime;
+  }
+
+  public int activeCount() {
+    return borrowed.size();
+  }
+
+  public int idleCount() {
+    synchronized (idle) {
+      return idle.size();
+    }
+  }
+
+  public long openedCount() {
+    return opened.get();
+  }
+
+  public long closedCount() {
+    return closed.get();
+  }
+
+  public long leakCount() {
+    return leaks.get();
+  }
+
+  /**
+   * Prepared statement cache hits, misses and evictions across all of this pool's connections.
+   */
+  public StatementCache.Stats statementStats() {
+    return statementStats;
+  }
+
+  @Override
+  public String toString() {
+    return "active=" + activeCount() + " idle=" + idleCount() + " opened=" + openedCount()
+        + " closed=" + closedCount() + " leaks=" + leakCount() + ", wait: " + waitTime
+        + ", statements: " + statementStats;
+  }
+}
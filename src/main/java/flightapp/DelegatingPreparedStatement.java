@@ -0,0 +1,677 @@
+package flightapp;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+
+/**
+ * A PreparedStatement that passes every call through to another one.
+ *
+ * Subclasses see what happens to the statement through three hooks, which do nothing here: every
+ * execution runs through {@link #run(Execution)}, every parameter bound is reported to
+ * {@link #parameterSet(int, Object)} and clearing them to {@link #parametersCleared()}. Unlike a
+ * {@link java.lang.reflect.Proxy}, calls cost no reflection.
+ */
+class DelegatingPreparedStatement implements PreparedStatement {
+  /**
+   * One execution of the statement, as passed to {@link #run(Execution)}.
+   */
+  protected interface Execution<T> {
+    T execute() throws SQLException;
+  }
+
+  protected final PreparedStatement statement;
+
+  DelegatingPreparedStatement(PreparedStatement statement) {
+    this.statement = statement;
+  }
+
+  /**
+   * Runs one execution of the statement; every execute method goes through here.
+   */
+  protected <T> T run(Execution<T> execution) throws SQLException {
+    return execution.execute();
+  }
+
+  /**
+   * Called after a parameter was bound; {@code value} is null for setNull.
+   */
+  protected void parameterSet(int parameterIndex, Object value) {
+  }
+
+  /**
+   * Called after clearParameters.
+   */
+  protected void parametersCleared() {
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    return run(() -> statement.executeQuery());
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    return run(() -> statement.executeUpdate());
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType) throws SQLException {
+    statement.setNull(parameterIndex, sqlType);
+    parameterSet(parameterIndex, null);
+  }
+
+  @Override
+  public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+    statement.setBoolean(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setByte(int parameterIndex, byte x) throws SQLException {
+    statement.setByte(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setShort(int parameterIndex, short x) throws SQLException {
+    statement.setShort(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setInt(int parameterIndex, int x) throws SQLException {
+    statement.setInt(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setLong(int parameterIndex, long x) throws SQLException {
+    statement.setLong(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setFloat(int parameterIndex, float x) throws SQLException {
+    statement.setFloat(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setDouble(int parameterIndex, double x) throws SQLException {
+    statement.setDouble(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+    statement.setBigDecimal(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setString(int parameterIndex, String x) throws SQLException {
+    statement.setString(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+    statement.setBytes(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x) throws SQLException {
+    statement.setDate(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x) throws SQLException {
+    statement.setTime(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+    statement.setTimestamp(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    statement.setAsciiStream(parameterIndex, x, length);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  @Deprecated
+  public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    statement.setUnicodeStream(parameterIndex, x, length);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    statement.setBinaryStream(parameterIndex, x, length);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    statement.clearParameters();
+    parametersCleared();
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+    statement.setObject(parameterIndex, x, targetSqlType);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x) throws SQLException {
+    statement.setObject(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    return run(() -> statement.execute());
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    statement.addBatch();
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, int length)
+      throws SQLException {
+    statement.setCharacterStream(parameterIndex, reader, length);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setRef(int parameterIndex, Ref x) throws SQLException {
+    statement.setRef(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, Blob x) throws SQLException {
+    statement.setBlob(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Clob x) throws SQLException {
+    statement.setClob(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setArray(int parameterIndex, Array x) throws SQLException {
+    statement.setArray(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return statement.getMetaData();
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+    statement.setDate(parameterIndex, x, cal);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+    statement.setTime(parameterIndex, x, cal);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+    statement.setTimestamp(parameterIndex, x, cal);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+    statement.setNull(parameterIndex, sqlType, typeName);
+    parameterSet(parameterIndex, null);
+  }
+
+  @Override
+  public void setURL(int parameterIndex, URL x) throws SQLException {
+    statement.setURL(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    return statement.getParameterMetaData();
+  }
+
+  @Override
+  public void setRowId(int parameterIndex, RowId x) throws SQLException {
+    statement.setRowId(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setNString(int parameterIndex, String value) throws SQLException {
+    statement.setNString(parameterIndex, value);
+    parameterSet(parameterIndex, value);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader value, long length)
+      throws SQLException {
+    statement.setNCharacterStream(parameterIndex, value, length);
+    parameterSet(parameterIndex, value);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, NClob value) throws SQLException {
+    statement.setNClob(parameterIndex, value);
+    parameterSet(parameterIndex, value);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    statement.setClob(parameterIndex, reader, length);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream, long length)
+      throws SQLException {
+    statement.setBlob(parameterIndex, inputStream, length);
+    parameterSet(parameterIndex, inputStream);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    statement.setNClob(parameterIndex, reader, length);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+    statement.setSQLXML(parameterIndex, xmlObject);
+    parameterSet(parameterIndex, xmlObject);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
+      throws SQLException {
+    statement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    statement.setAsciiStream(parameterIndex, x, length);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    statement.setBinaryStream(parameterIndex, x, length);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, long length)
+      throws SQLException {
+    statement.setCharacterStream(parameterIndex, reader, length);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+    statement.setAsciiStream(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+    statement.setBinaryStream(parameterIndex, x);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+    statement.setCharacterStream(parameterIndex, reader);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+    statement.setNCharacterStream(parameterIndex, value);
+    parameterSet(parameterIndex, value);
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader) throws SQLException {
+    statement.setClob(parameterIndex, reader);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+    statement.setBlob(parameterIndex, inputStream);
+    parameterSet(parameterIndex, inputStream);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+    statement.setNClob(parameterIndex, reader);
+    parameterSet(parameterIndex, reader);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength)
+      throws SQLException {
+    statement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+    statement.setObject(parameterIndex, x, targetSqlType);
+    parameterSet(parameterIndex, x);
+  }
+
+  @Override
+  public long executeLargeUpdate() throws SQLException {
+    return run(() -> statement.executeLargeUpdate());
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    return run(() -> statement.executeQuery(sql));
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    return run(() -> statement.executeUpdate(sql));
+  }
+
+  @Override
+  public void close() throws SQLException {
+    statement.close();
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return statement.getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    statement.setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return statement.getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    statement.setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    statement.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return statement.getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    statement.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    statement.cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return statement.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    statement.clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    statement.setCursorName(name);
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    return run(() -> statement.execute(sql));
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return statement.getResultSet();
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return statement.getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return statement.getMoreResults();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    statement.setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return statement.getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    statement.setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return statement.getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return statement.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return statement.getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    statement.addBatch(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    statement.clearBatch();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    return run(() -> statement.executeBatch());
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return statement.getConnection();
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    return statement.getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return statement.getGeneratedKeys();
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    return run(() -> statement.executeUpdate(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    return run(() -> statement.executeUpdate(sql, columnIndexes));
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    return run(() -> statement.executeUpdate(sql, columnNames));
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    return run(() -> statement.execute(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    return run(() -> statement.execute(sql, columnIndexes));
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    return run(() -> statement.execute(sql, columnNames));
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return statement.getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return statement.isClosed();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    statement.setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return statement.isPoolable();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    statement.closeOnCompletion();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return statement.isCloseOnCompletion();
+  }
+
+  @Override
+  public long getLargeUpdateCount() throws SQLException {
+    return statement.getLargeUpdateCount();
+  }
+
+  @Override
+  public void setLargeMaxRows(long max) throws SQLException {
+    statement.setLargeMaxRows(max);
+  }
+
+  @Override
+  public long getLargeMaxRows() throws SQLException {
+    return statement.getLargeMaxRows();
+  }
+
+  @Override
+  public long[] executeLargeBatch() throws SQLException {
+    return run(() -> statement.executeLargeBatch());
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql) throws SQLException {
+    return run(() -> statement.executeLargeUpdate(sql));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    return run(() -> statement.executeLargeUpdate(sql, autoGeneratedKeys));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    return run(() -> statement.executeLargeUpdate(sql, columnIndexes));
+  }
+
+  @Override
+  public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+    return run(() -> statement.executeLargeUpdate(sql, columnNames));
+  }
+
+  @Override
+  public String enquoteLiteral(String val) throws SQLException {
+    return statement.enquoteLiteral(val);
+  }
+
+  @Override
+  public String enquoteIdentifier(String identifier, boolean alwaysQuote) throws SQLException {
+    return statement.enquoteIdentifier(identifier, alwaysQuote);
+  }
+
+  @Override
+  public boolean isSimpleIdentifier(String identifier) throws SQLException {
+    return statement.isSimpleIdentifier(identifier);
+  }
+
+  @Override
+  public String enquoteNCharLiteral(String val) throws SQLException {
+    return statement.enquoteNCharLiteral(val);
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return statement.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return statement.isWrapperFor(iface);
+  }
+}
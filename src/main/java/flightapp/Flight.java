@@ -0,0 +1,15 @@
+package flightapp;
+
+/**
+ * One flight, as shown in search results and reservation listings.
+ */
+public record Flight(int fid, int dayOfMonth, String carrierId, String flightNum, String originCity,
+    String destCity, int time, int capacity, int price) {
+
+  @Override
+  public String toString() {
+    return "ID: " + fid + " Day: " + dayOfMonth + " Carrier: " + carrierId + " Number: "
+        + flightNum + " Origin: " + originCity + " Dest: " + destCity + " Duration: " + time
+        + " Capacity: " + capacity + " Price: " + price;
+  }
+}
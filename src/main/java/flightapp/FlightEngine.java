@@ -0,0 +1,1927 @@
+package flightapp;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.security.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Runs queries against a back-end database on behalf of any number of sessions.
+ *
+ * The engine holds everything that is shared: the connection pool, the password hasher, the
+ * username filter, issued session tokens and cached reservation listings. It keeps no per-user
+ * state, so one instance is safe to use from many threads at once; what a user has done so far
+ * lives in the {@link Session} passed to each transaction.
+ */
+public class FlightEngine {
+  // Engines by JDBC URL, so that everyone connecting to the same database shares one
+  private static final Map<String, FlightEngine> SHARED = new HashMap<>();
+
+  // Connections shared with every session against the same database, borrowed for one command at a time
+  private final ConnectionPool pool;
+
+  // Connections to a read-only copy of the database for searches and reservation listings; null to read from the primary
+  private final ConnectionPool readPool;
+
+  // URL of the read-only copy, or null to read from the primary
+  private final String readUrl;
+
+  // How long after a session's own booking, payment or cancellation its reads stay on the primary, so it sees its writes
+  private final long pinAfterWriteMillis;
+
+  // Computes password hashes off the session thread
+  private final PasswordHasher passwordHasher = PasswordHasher.forAvailableProcessors();
+
+  // Usernames known to exist, loaded when the engine starts
+  private final UsernameBloomFilter usernameFilter = new UsernameBloomFilter(1000000, 0.01);
+
+  // Session tokens issued on login
+  private final SessionTokens sessionTokens = new SessionTokens(SessionTokens.DEFAULT_TTL_MILLIS, SessionTokens.DEFAULT_MAX_TOKENS);
+
+  // Canned queries
+  private static final String CHECK_FLIGHT_CAPACITY = "SELECT capacity FROM Flights WHERE fid = ?";
+
+  // For check dangling
+  private static final String TRANCOUNT_SQL = "SELECT @@TRANCOUNT AS tran_count";
+
+  // Set to N to also ask the server for @@TRANCOUNT after every Nth command; 0 (the default) never asks
+  public static final String TRANCOUNT_SAMPLE_PROPERTY = "flightapp.debug.trancount_sample";
+  private static final int TRANCOUNT_SAMPLE = Integer.getInteger(TRANCOUNT_SAMPLE_PROPERTY, 0);
+  private static final AtomicLong commandsRun = new AtomicLong();
+
+  static {
+    Metrics.nameStatements(FlightEngine.class);
+    Metrics.nameStatements(Ledger.class);
+  }
+
+  // Rendered reservation listings of every session's user
+  private final ReservationCache reservationCache = new ReservationCache();
+
+  // Time taken by each batch of staged search candidates
+  private final LatencyStats preBatchTime = new LatencyStats();
+  
+  // Clears all the entries in the custom tables
+  private static final String CLEAR_TABLES = "DELETE FROM Users; DELETE FROM PreItineraries; DELETE FROM Reservations; DELETE FROM ReservationsArchive; " +
+                                             "DELETE FROM LedgerEntries; DELETE FROM BalanceSnapshots;";
+  
+  // Clears the Itineraries tables
+  private static final String CLEAR_ITINERARIES = "DELETE FROM PreItineraries;";
+  
+  // Lists every existing username, lower-cased
+  private static final String ALL_USERNAMES = "SELECT U.username_normalized AS username FROM Users AS U;";
+  
+  // Checks if the username already exists (seeks the unique index on the lower-cased username)
+  private static final String USER_EXISTS = "SELECT COUNT(U.username) AS username_count FROM Users AS U WHERE U.username_normalized = ?;";
+  
+  // Retrieve salt and hash for the associated user, along with the parameters the hash was computed with
+  private static final String USER_CREDENTIALS = "SELECT U.salt AS user_salt, U.hash AS username_hash, U.hash_algorithm AS hash_algorithm, " +
+                                                 "U.hash_iterations AS hash_iterations FROM Users AS U WHERE U.username_normalized = ?;";
+  
+  // Replaces a user's hash with one computed under new parameters, unless the hash changed in the meantime
+  private static final String REHASH_USER = "UPDATE Users SET hash = ?, salt = ?, hash_algorithm = ?, hash_iterations = ? WHERE username_normalized = ? AND hash = ?;";
+  
+  // Makes new account for the new user
+  private static final String ACCOUNT_CREATION = "INSERT INTO Users (username, hash, salt, hash_algorithm, hash_iterations) VALUES (?,?,?,?,?);";
+  
+  // Finds one flight itineraries
+  private static final String ONE_FLIGHT = "SELECT TOP (?) f.fid AS fid_one, f.actual_time AS total_time FROM Flights AS f WHERE f.origin_city = ? AND f.dest_city = ? " +
+                                           "AND f.day_of_month =  ? AND f.canceled = 0 ORDER BY f.actual_time ASC;";
+  
+  // Finds two flight itineraries
+  private static final String TWO_FLIGHT = "SELECT TOP (?) f.fid AS fid_one, g.fid AS fid_two, g.actual_time + f.actual_time AS total_time FROM Flights AS f, Flights AS g " + 
+                                           "WHERE f.origin_city = ? AND f.dest_city = g.origin_city AND g.dest_city = ? AND f.day_of_month = ? " +
+                                           "AND g.day_of_month = ? AND f.canceled = 0 AND g.canceled = 0 ORDER BY f.actual_time + g.actual_time ASC;";
+  
+  // Insert into Pre-Itineraries table
+  private static final String INSERT_PRE = "INSERT INTO PreItineraries (fid_one, fid_two, total_time, num_flights) VALUES (?,?,?,?);";
+
+  // Candidate itineraries are staged in batches of up to this many rows, and no row waits longer than the delay to be sent
+  private static final int PRE_BATCH_SIZE = 100;
+  private static final long PRE_BATCH_DELAY_MILLIS = 50;
+  
+  // Pull top values for direct flight from Pre-Itineraries table
+  private static final String PULL_DIRECT = "SELECT TOP (?) p.fid_one AS fid_one, p.fid_two AS fid_two, p.total_time AS total_time, p.num_flights AS num_flights FROM PreItineraries AS p " +
+                                            "WHERE p.num_flights = 1 ORDER BY p.num_flights DESC, p.total_time ASC, p.fid_one ASC, p.fid_two ASC;";
+  
+  // Get a count for number of direct flights from Pre-Itineraries table
+  private static final String PULL_COUNT = "SELECT COUNT(*) AS count FROM PreItineraries AS p WHERE p.num_flights = 1";
+  
+  // Pull top values for indirect flight from Pre-Itineraries table
+  private static final String PULL_INDIRECT = "SELECT TOP (?) p.fid_one AS fid_one, p.fid_two AS fid_two, p.total_time AS total_time, p.num_flights AS num_flights FROM PreItineraries AS p " +
+                                         "WHERE p.num_flights = 2 ORDER BY p.num_flights DESC, p.total_time ASC, p.fid_one ASC, p.fid_two ASC;";
+  
+  // Get values associated with fid value
+  private static final String FID_VALUES = "SELECT f.carrier_id AS carrier_id, f.origin_city AS origin_city, f.dest_city AS dest_city, f.actual_time AS actual_time, f.capacity AS capacity, " +
+                                           "f.price as price, f.flight_num AS flight_num, f.day_of_month AS day_of_month FROM Flights AS f WHERE f.fid = ?;";
+
+  // Returns available seats for a specific flight
+  private static final String CHECK_FULL = "WITH Mod AS (SELECT COUNT(*) AS count FROM Reservations AS r WHERE (r.fid_one = ? OR r.fid_two = ?) AND r.cancelled = 0) " + 
+                                           "SELECT f.capacity - m.count  AS seats_left FROM Mod AS m, Flights AS f WHERE f.fid = ?";
+  
+  // Finds number of flights booked by the user on the same day
+  private static final String COUNT_SAME = "SELECT COUNT(*) AS same_day from Reservations AS r, Flights AS f, Flights AS g WHERE f.fid = ? AND r.username = ? " +
+                                            "AND g.fid = r.fid_one AND g.day_of_month = f.day_of_month AND r.cancelled = 0";
+  
+  // Finds cost of a flight
+  private static final String FLIGHT_COST = "SELECT f.price AS flight_cost FROM Flights AS f WHERE f.fid = ?";
+  
+  // Books flights for the user based on intinerary number
+  private static final String BOOK_ITINERARY = "INSERT INTO Reservations (fid_one, fid_two, total_price, username, pay) OUTPUT INSERTED.re_id AS re_id VALUES(?, ?, ?, ?, ?);";
+  
+  // Finds the last identity value handed out for Reservations; NULL if no row has ever been inserted
+  private static final String LAST_RESERVATION_ID = "SELECT CAST(last_value AS int) AS last_value FROM sys.identity_columns WHERE object_id = OBJECT_ID('Reservations');";
+  
+  // Marks an unpaid reservation under the user's name as paid and returns its price; returns no row if there is no such reservation
+  private static final String PAY_RESERVATION = "UPDATE Reservations SET pay = 1 OUTPUT INSERTED.total_price AS total_price WHERE username = ? AND re_id = ? AND pay = 0 AND cancelled = 0;";
+  
+  // Counts numbers of total row in Reservations
+  private static final String TOTAL_RESERVATIONS = "SELECT COUNT(*) AS row_count FROM Reservations";
+  
+  // Reindex Reservations re_id column to 0
+  private static final String REINDEX_RESERVATIONS = "DBCC CHECKIDENT('Reservations', RESEED, 0);";
+  
+  // Gets all live reservations for the user with the details of each flight in them; the second flight's columns are NULL for direct itineraries
+  private static final String USER_RESERVATIONS = "SELECT r.re_id AS re_id, r.pay AS pay, r.fid_one AS fid_one, r.fid_two AS fid_two, " +
+                                                  "f.day_of_month AS day_of_month_one, f.carrier_id AS carrier_id_one, f.flight_num AS flight_num_one, " +
+                                                  "f.origin_city AS origin_city_one, f.dest_city AS dest_city_one, f.actual_time AS actual_time_one, " +
+                                                  "f.capacity AS capacity_one, f.price AS price_one, " +
+                                                  "g.day_of_month AS day_of_month_two, g.carrier_id AS carrier_id_two, g.flight_num AS flight_num_two, " +
+                                                  "g.origin_city AS origin_city_two, g.dest_city AS dest_city_two, g.actual_time AS actual_time_two, " +
+                                                  "g.capacity AS capacity_two, g.price AS price_two " +
+                                                  "FROM Reservations AS r JOIN Flights AS f ON f.fid = r.fid_one LEFT JOIN Flights AS g ON g.fid = r.fid_two " +
+                                                  "WHERE r.username = ? AND r.cancelled = 0 ORDER BY r.re_id ASC;";
+  
+  // Cancels a live reservation under the user's name by tombstoning it, returning its pay status and price; returns no row if there is no such reservation
+  private static final String CANCEL_RESERVATION = "UPDATE Reservations SET cancelled = 1, cancelled_at = SYSUTCDATETIME() OUTPUT INSERTED.pay AS pay, " +
+                                                   "INSERTED.total_price AS total_price WHERE username = ? AND re_id = ? AND cancelled = 0;";
+  
+  public FlightEngine(ConnectionPool.Config config) throws SQLException {
+    this(config, null, 0);
+  }
+
+  /**
+   * @param readConfig          read-only copy to send searches and reservation listings to, or
+   *                            null to read from the primary
+   * @param pinAfterWriteMillis how long a session that booked, paid or cancelled keeps reading
+   *                            from the primary; should exceed the copy's replication lag
+   */
+  public FlightEngine(ConnectionPool.Config config, ConnectionPool.Config readConfig,
+      long pinAfterWriteMillis) throws SQLException {
+    pool = ConnectionPool.shared(config);
+    readPool = readConfig == null ? null : ConnectionPool.shared(readConfig);
+    readUrl = readConfig == null ? null : readConfig.url;
+    this.pinAfterWriteMillis = pinAfterWriteMillis;
+
+    ConnectionPool.PooledConnection pc = pool.borrow();
+    try {
+      loadUsernameFilter(pc.getConnection());
+    } finally {
+      pool.release(pc);
+    }
+  }
+
+  /**
+   * Returns the engine shared by everyone connecting with the same URL, starting it on first use.
+   */
+  public static FlightEngine shared(ConnectionPool.Config config) throws SQLException {
+    return shared(config, null, 0);
+  }
+
+  /**
+   * Returns the engine shared by everyone connecting with the same URL, starting it with the given
+   * read routing on first use.
+   *
+   * @throws IllegalStateException if the engine for the URL was started with different read routing
+   */
+  public static synchronized FlightEngine shared(ConnectionPool.Config config,
+      ConnectionPool.Config readConfig, long pinAfterWriteMillis) throws SQLException {
+    FlightEngine engine = SHARED.get(config.url);
+    if (engine == null) {
+      engine = new FlightEngine(config, readConfig, pinAfterWriteMillis);
+      SHARED.put(config.url, engine);
+    } else if (!Objects.equals(engine.readUrl, readConfig == null ? null : readConfig.url)
+        || (readConfig != null && engine.pinAfterWriteMillis != pinAfterWriteMillis)) {
+      throw new IllegalStateException("The engine for " + config.url + " already reads from "
+          + (engine.readUrl == null ? "the primary" : engine.readUrl + " with a "
+          + engine.pinAfterWriteMillis + " ms pin after writes"));
+    }
+    return engine;
+  }
+
+  /**
+   * Returns the engine for dbconn.properties, with the read routing configured there.
+   *
+   * @throws SQLException
+   * @throws IOException
+   */
+  public static FlightEngine sharedFromDbConn() throws SQLException, IOException {
+    Properties configProps = new Properties();
+    configProps.load(new FileInputStream("dbconn.properties"));
+    return shared(poolConfigFromDbConn(), readPoolConfigFromDbConn(),
+        Long.parseLong(configProps.getProperty("flightapp.read.pin_after_write_ms", "5000")));
+  }
+
+  /**
+   * Fills the username filter from the Users table
+   */
+  private void loadUsernameFilter(Connection conn) throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet rs = statement.executeQuery(ALL_USERNAMES)) {
+      while (rs.next()) {
+        usernameFilter.add(rs.getString("username"));
+      }
+    }
+  }
+
+  /**
+   * Return a connection pool configuration by using dbconn.properties file, including any
+   * flightapp.pool.* settings in it
+   *
+   * @throws IOException
+   */
+  public static ConnectionPool.Config poolConfigFromDbConn() throws IOException {
+    // Connect to the database with the provided connection configuration
+    Properties configProps = new Properties();
+    configProps.load(new FileInputStream("dbconn.properties"));
+    String serverURL = configProps.getProperty("flightapp.server_url");
+    String dbName = configProps.getProperty("flightapp.database_name");
+    String adminName = configProps.getProperty("flightapp.username");
+    String password = configProps.getProperty("flightapp.password");
+    return poolConfigFromCredential(serverURL, dbName, adminName, password)
+        .withProperties(configProps);
+  }
+
+  /**
+   * Return a connection pool configuration for the read-only copy of the database named by the
+   * flightapp.read.* settings in dbconn.properties, or null if there is none or
+   * flightapp.read.routing is "primary". The copy's database name and login default to the
+   * primary's.
+   *
+   * @throws IOException
+   */
+  public static ConnectionPool.Config readPoolConfigFromDbConn() throws IOException {
+    Properties configProps = new Properties();
+    configProps.load(new FileInputStream("dbconn.properties"));
+    String serverURL = configProps.getProperty("flightapp.read.server_url");
+    if (serverURL == null || configProps.getProperty("flightapp.read.routing", "replica").equals("primary")) {
+      return null;
+    }
+    String dbName = configProps.getProperty("flightapp.read.database_name", configProps.getProperty("flightapp.database_name"));
+    String adminName = configProps.getProperty("flightapp.read.username", configProps.getProperty("flightapp.username"));
+    String password = configProps.getProperty("flightapp.read.password", configProps.getProperty("flightapp.password"));
+    ConnectionPool.Config config = new ConnectionPool.Config(String.format(
+        "jdbc:sqlserver://%s:1433;databaseName=%s;user=%s;password=%s;applicationIntent=ReadOnly",
+        serverURL, dbName, adminName, password)).withProperties(configProps);
+    config.readOnly = true;
+    return config;
+  }
+
+  /**
+   * Return a connection pool configuration by using the provided parameter.
+   *
+   * @param serverURL example: example.database.widows.net
+   * @param dbName    database name
+   * @param adminName username to login server
+   * @param password  password to login server
+   */
+  protected static ConnectionPool.Config poolConfigFromCredential(String serverURL, String dbName,
+      String adminName, String password) {
+    String connectionUrl =
+        String.format("jdbc:sqlserver://%s:1433;databaseName=%s;user=%s;password=%s", serverURL,
+            dbName, adminName, password);
+    return new ConnectionPool.Config(connectionUrl);
+  }
+
+  /**
+   * Return a connecion by using dbconn.properties file
+   *
+   * @throws SQLException
+   * @throws IOException
+   */
+  public static Connection openConnectionFromDbConn() throws SQLException, IOException {
+    return poolConfigFromDbConn().openConnection();
+  }
+
+  /**
+   * Return a connecion by using the provided parameter.
+   *
+   * @param serverURL example: example.database.widows.net
+   * @param dbName    database name
+   * @param adminName username to login server
+   * @param password  password to login server
+   *
+   * @throws SQLException
+   */
+  protected static Connection openConnectionFromCredential(String serverURL, String dbName,
+      String adminName, String password) throws SQLException {
+    return poolConfigFromCredential(serverURL, dbName, adminName, password).openConnection();
+  }
+
+  /**
+   * Get the connection pool sessions borrow from
+   */
+  public ConnectionPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Get the connection pool for the read-only copy, or null if everything reads from the primary
+   */
+  public ConnectionPool getReadPool() {
+    return readPool;
+  }
+
+  /**
+   * Get the time taken by each batch of rows written while searching
+   */
+  public LatencyStats getBatchTime() {
+    return preBatchTime;
+  }
+
+  /**
+   * Get the password hasher shared by all sessions, e.g. to read its queue depth and latencies
+   */
+  public PasswordHasher getPasswordHasher() {
+    return passwordHasher;
+  }
+
+  /**
+   * Body of a command that needs the database
+   */
+  private interface Transaction<T> {
+    T run(ConnectionPool.PooledConnection pc, Connection conn) throws SQLException;
+  }
+
+  /**
+   * Body of a command that writes to the primary and reads from wherever the session's reads go
+   */
+  private interface ReadWriteTransaction<T> {
+    T run(ConnectionPool.PooledConnection pc, ConnectionPool.PooledConnection rpc, Connection conn) throws SQLException;
+  }
+
+  /**
+   * Whether the session's reads go to the read-only copy: there is one, and the session has not
+   * booked, paid or cancelled recently enough that the copy might not show it yet
+   */
+  private boolean readsFromCopy(Session session) {
+    return readPool != null && System.currentTimeMillis() - session.last_write_millis >= pinAfterWriteMillis;
+  }
+
+  /**
+   * Like {@link #withConnection(Object, Transaction)}, but also passes the body a connection to
+   * wherever the session's reads go, which is the primary connection itself if reads are not routed
+   * elsewhere
+   */
+  private <T> T withReadWriteConnections(Session session, T failure, ReadWriteTransaction<T> body) {
+    if (!readsFromCopy(session)) {
+      return withConnection(failure, (pc, conn) -> body.run(pc, pc, conn));
+    }
+    return withConnection(failure, (pc, conn) -> withConnection(readPool, failure, (rpc, rconn) -> body.run(pc, rpc, conn)));
+  }
+
+  /**
+   * Borrows a connection, runs the body on it, checks that the body did not leave a transaction open,
+   * and returns the connection to the pool
+   *
+   * @param failure returned if no connection can be borrowed or the body throws
+   */
+  private <T> T withConnection(T failure, Transaction<T> body) {
+    return withConnection(pool, failure, body);
+  }
+
+  private <T> T withConnection(ConnectionPool pool, T failure, Transaction<T> body) {
+    ConnectionPool.PooledConnection pc;
+    try {
+      pc = pool.borrow();
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return failure;
+    }
+    try {
+      return body.run(pc, pc.getConnection());
+    } catch (SQLException e) {
+      e.printStackTrace();
+      return failure;
+    } finally {
+      try {
+        checkDanglingTransaction(pc);
+      } finally {
+        pool.release(pc);
+      }
+    }
+  }
+
+  /**
+   * Clear the data in any custom tables created.
+   * 
+   * WARNING! Do not drop any tables and do not clear the flights table.
+   */
+   public void clearTables() {
+      withConnection(null, (pc, conn) -> {
+
+         PreparedStatement lastReservationIdStatement = pc.statement(LAST_RESERVATION_ID);
+         PreparedStatement clearTablesStatement = pc.statement(CLEAR_TABLES);
+         PreparedStatement reindexReservationsStatement = pc.statement(REINDEX_RESERVATIONS);
+
+         // Finds whether a reservation ID has ever been handed out
+
+         try {
+
+            lastReservationIdStatement.clearParameters();
+            ResultSet lastReservationIdResultSet = lastReservationIdStatement.executeQuery();
+            lastReservationIdResultSet.next();
+            lastReservationIdResultSet.getInt("last_value");
+            boolean ids_used = !lastReservationIdResultSet.wasNull();
+            lastReservationIdResultSet.close();
+
+            // Clears tables
+
+            try {
+
+               clearTablesStatement.clearParameters(); 
+               clearTablesStatement.executeUpdate();
+               reservationCache.clear();
+               sessionTokens.clear();
+               usernameFilter.clear();
+
+               // Resets index of Reservations table if Reservations previously had rows inserted into it
+
+               if (ids_used) {
+
+                  try {
+
+                     reindexReservationsStatement.clearParameters();
+                     reindexReservationsStatement.executeUpdate();
+
+                  } catch (SQLException e) {
+
+                     e.printStackTrace();
+
+                  }
+
+               }
+
+            } catch (SQLException e) {
+
+               e.printStackTrace();
+            } 
+
+         } catch (Exception e) {
+
+            e.printStackTrace();
+
+         }
+         return null;
+      });
+   }
+
+  /**
+   * Takes a user's username and password and attempts to log the user in.
+   *
+   * @param session the user's session
+   * @param username user's username
+   * @param password user's password
+   *
+   * @return If someone has already logged in, then return "User already logged in\n" For all other
+   *         errors, return "Login failed\n". Otherwise, return "Logged in as [username]\n".
+   */
+   public String transaction_login(Session session, String username, String password) {
+      return Metrics.time("login", () -> runLogin(session, username, password));
+   }
+
+   private String runLogin(Session session, String username, String password) {
+
+      // Return already logged in message if user already logged in
+
+      if (session.logged_in) {
+
+        return "User already logged in\n";
+
+      }
+
+      String mod_username = username.toLowerCase();
+
+      // Read what the password is checked against, then give the connection back before hashing, so a burst
+      // of logins waits on the hashing pool without holding every pooled connection
+
+      Credentials credentials = withConnection(null, (pc, conn) -> {
+
+         PreparedStatement clearItinerariesStatement = pc.statement(CLEAR_ITINERARIES);
+         PreparedStatement userCredentialsStatement = pc.statement(USER_CREDENTIALS);
+
+         // Clear pre-itinerary table
+
+         try {
+
+            clearItinerariesStatement.clearParameters();
+            clearItinerariesStatement.executeUpdate();
+
+         } catch (SQLException e) {
+
+            e.printStackTrace();
+
+         }
+
+         // Retrieve salt, stored hash and hash parameters for the given username in one read
+
+         userCredentialsStatement.clearParameters();
+         userCredentialsStatement.setString(1, mod_username);
+         try (ResultSet rs = userCredentialsStatement.executeQuery()) {
+
+            if (!rs.next()) {
+
+               return null;
+
+            }
+
+            String hash_algorithm = rs.getString("hash_algorithm");
+            int hash_iterations = rs.getInt("hash_iterations");
+            PasswordHasher.Params params = hash_algorithm == null ? PasswordHasher.Params.LEGACY
+                                                                  : new PasswordHasher.Params(hash_algorithm, hash_iterations);
+            return new Credentials(rs.getBytes("user_salt"), rs.getBytes("username_hash"), params);
+
+         }
+      });
+
+      if (credentials == null) {
+
+         return "Login failed\n";
+
+      }
+
+      // Generate the hash from the salt and the password on the hashing pool, with the parameters the stored hash used
+
+      byte[] hash = passwordHasher.hash(password, credentials.salt(), credentials.params());
+
+      // Login if the byte array in the Users table matches the hash
+      // Update the session's user_id and logged_in if login is successful
+
+      if (!Arrays.equals(credentials.hash(), hash)) {
+
+         return "Login failed\n";
+
+      }
+
+      // Upgrade the stored hash if it was computed with outdated parameters
+
+      if (!credentials.params().equals(passwordHasher.current())) {
+
+         rehash(mod_username, password, credentials.hash());
+
+      }
+
+      session.user_id = mod_username;
+      session.logged_in = true;
+      session.session_token = sessionTokens.issue(session.user_id, username);
+      return "Logged in as " + username + "\n";
+   }
+
+  /**
+   * A user's stored salt and password hash, and the parameters the hash was computed with.
+   */
+  private record Credentials(byte[] salt, byte[] hash, PasswordHasher.Params params) {
+  }
+
+  /**
+   * Stores a hash of the password computed with the current parameters and a fresh salt. The hash is
+   * computed before a connection is borrowed for the update. The update only applies if the stored hash
+   * is still the one the login checked. Logging in still works if this fails, so failures are only
+   * reported.
+   */
+  private void rehash(String username, String password, byte[] old_hash) {
+    SecureRandom random = new SecureRandom();
+    byte[] salt = new byte[16];
+    random.nextBytes(salt);
+    PasswordHasher.Params params = passwordHasher.current();
+    byte[] hash = passwordHasher.hash(password, salt, params);
+
+    withConnection(null, (pc, conn) -> {
+      PreparedStatement rehashUserStatement = pc.statement(REHASH_USER);
+      rehashUserStatement.clearParameters();
+      rehashUserStatement.setBytes(1, hash);
+      rehashUserStatement.setBytes(2, salt);
+      rehashUserStatement.setString(3, params.algorithm);
+      rehashUserStatement.setInt(4, params.iterations);
+      rehashUserStatement.setString(5, username);
+      rehashUserStatement.setBytes(6, old_hash);
+      rehashUserStatement.executeUpdate();
+      return null;
+    });
+  }
+
+  /**
+   * Logs the user back in with a session token from an earlier login, without re-hashing their password.
+   *
+   * @param session the user's session
+   * @param token token returned by {@link Session#getSessionToken()} after a successful login
+   *
+   * @return If someone has already logged in, then return "User already logged in\n". If the token
+   *         is forged, expired or revoked, return "Resume failed\n". Otherwise, return "Logged in as
+   *         [username]\n".
+   */
+   public String transaction_resume(Session session, String token) {
+      return Metrics.time("resume", () -> runResume(session, token));
+   }
+
+   private String runResume(Session session, String token) {
+   
+      // Return already logged in message if user already logged in
+      
+      if (session.logged_in) {
+      
+         return "User already logged in\n";
+         
+      }
+      
+      // Checking the token only takes an HMAC, so the database is not touched at all
+      
+      SessionTokens.Login login = sessionTokens.verify(token);
+      
+      if (login == null) {
+      
+         return "Resume failed\n";
+         
+      }
+      
+      session.user_id = login.username();
+      session.logged_in = true;
+      session.session_token = token;
+      return "Logged in as " + login.displayName() + "\n";
+   }
+
+  /**
+   * Logs the session's user out and revokes the token their login or resume was given, so it
+   * cannot be resumed any more. A client that merely disconnects keeps its token, which is what
+   * lets it resume after reconnecting.
+   */
+  public void logout(Session session) {
+    String token = session.session_token;
+    if (token != null) {
+      sessionTokens.revoke(token);
+    }
+    session.reset();
+  }
+
+  /**
+   * Implement the create user function.
+   *
+   * @param session the user's session
+   * @param username   new user's username. User names are unique the system.
+   * @param password   new user's password.
+   * @param initAmount initial amount to deposit into the user's account, should be >= 0 (failure
+   *                   otherwise).
+   *
+   * @return either "Created user {@code username}\n" or "Failed to create user\n" if failed.
+   */
+   public String transaction_createCustomer(Session session, String username, String password, int initAmount) {
+      return Metrics.time("create", () -> runCreateCustomer(session, username, password, initAmount));
+   }
+
+   private String runCreateCustomer(Session session, String username, String password, int initAmount) {
+
+      // If initial amount is a negative number, then return a failure message
+
+      if (initAmount < 0) {
+
+         return "Failed to create user\n";
+
+      }
+
+      String mod_username = username.toLowerCase();
+
+      // A name the filter has never seen is new unless another process created it, which the unique index on
+      // Users catches, so the existence query is only needed for names it might know. It runs before hashing, so
+      // creating a name that is taken costs no hash, and outside the transaction, so it takes no range locks
+
+      if (usernameFilter.mightContain(mod_username) && userExists(mod_username)) {
+
+         return "Failed to create user\n";
+
+      }
+
+      // Generate a random cryptographic salt and the hash on the hashing pool, before any transaction is opened
+
+      SecureRandom random = new SecureRandom();
+      byte[] salt = new byte[16];
+      random.nextBytes(salt);
+      byte[] hash = passwordHasher.hash(password, salt);
+
+      return withConnection("Failed to create user\n", (pc, conn) -> {
+
+         PreparedStatement accountCreationStatement = pc.statement(ACCOUNT_CREATION);
+         Ledger ledger = new Ledger(pc);
+
+         for (int i = 0; i < 3; i++) {
+
+            if (i > 0) {
+               Metrics.retry();
+               Trace.retry();
+            }
+
+            try {
+
+               // Set auto commit to false
+
+               conn.setAutoCommit(false);
+
+               // Insert username, hash, and salt into the User table
+
+               accountCreationStatement.clearParameters();
+               accountCreationStatement.setString(1, username);
+               accountCreationStatement.setBytes(2, hash);
+               accountCreationStatement.setBytes(3, salt);
+               accountCreationStatement.setString(4, passwordHasher.current().algorithm);
+               accountCreationStatement.setInt(5, passwordHasher.current().iterations);
+               accountCreationStatement.executeUpdate();
+
+               // Opens the user's balance with the initial amount as its first ledger entry
+
+               ledger.open(mod_username, initAmount);
+
+               conn.commit();
+               conn.setAutoCommit(true);
+               usernameFilter.add(mod_username);
+               return "Created user " + username + "\n";
+
+            } catch (SQLException e) {
+
+               // Since terminals will obviously clash in the first few iterations of the transaction, 
+               // we only want to know when the terminals are still clashing in the last iteration.
+
+               try {
+
+                  conn.rollback();
+
+               } catch (SQLException se) {
+
+                  se.printStackTrace();
+
+               }
+
+               // The unique index on Users rejected the name, so it was taken after all
+
+               if (isDuplicateKey(e)) {
+
+                  usernameFilter.add(mod_username);
+                  return "Failed to create user\n";
+
+               }
+
+               if (i == 2) {
+
+                  e.printStackTrace(); 
+
+               }
+
+            }
+
+         }
+
+         return "Failed to create user\n";
+      });
+   }
+
+   /**
+    * Whether a user with the lower-cased name exists, checked outside any transaction. If that cannot be checked,
+    * returns false and leaves it to the unique index on Users to reject the name.
+    */
+   private boolean userExists(String mod_username) {
+      return withConnection(false, (pc, conn) -> {
+         PreparedStatement userExistsStatement = pc.statement(USER_EXISTS);
+         userExistsStatement.clearParameters();
+         userExistsStatement.setString(1, mod_username);
+         try (ResultSet rs = userExistsStatement.executeQuery()) {
+            rs.next();
+            return rs.getInt("username_count") != 0;
+         }
+      });
+   }
+
+  /**
+   * Implement the search function.
+   *
+   * Searches for flights from the given origin city to the given destination city, on the given day
+   * of the month. If {@code directFlight} is true, it only searches for direct flights, otherwise
+   * is searches for direct flights and flights with two "hops." Only searches for up to the number
+   * of itineraries given by {@code numberOfItineraries}.
+   *
+   * The results are sorted based on total flight time.
+   *
+   * @param session the user's session
+   * @param originCity
+   * @param destinationCity
+   * @param directFlight        if true, then only search for direct flights, otherwise include
+   *                            indirect flights as well
+   * @param dayOfMonth
+   * @param numberOfItineraries number of itineraries to return
+   *
+   * @return If no itineraries were found, return "No flights match your selection\n". If an error
+   *         occurs, then return "Failed to search\n".
+   *
+   *         Otherwise, the sorted itineraries printed in the following format:
+   *
+   *         Itinerary [itinerary number]: [number of flights] flight(s), [total flight time]
+   *         minutes\n [first flight in itinerary]\n ... [last flight in itinerary]\n
+   *
+   *         Each flight should be printed using the same format as in the {@code Flight} class.
+   *         Itinerary numbers in each search should always start from 0 and increase by 1.
+   *
+   * @see Flight#toString()
+   */
+  public String transaction_search(Session session, String originCity, String destinationCity, boolean directFlight,
+      int dayOfMonth, int numberOfItineraries) {
+    return search(session, originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries).render();
+  }
+
+  /**
+   * Searches like {@link #transaction_search}, returning the itineraries found instead of their text
+   */
+  public SearchResult search(Session session, String originCity, String destinationCity, boolean directFlight,
+      int dayOfMonth, int numberOfItineraries) {
+     return Metrics.time("search", () -> runSearch(session, originCity, destinationCity, directFlight, dayOfMonth, numberOfItineraries));
+  }
+
+  private SearchResult runSearch(Session session, String originCity, String destinationCity, boolean directFlight,
+      int dayOfMonth, int numberOfItineraries) {
+      return withReadWriteConnections(session, SearchResult.FAILED, (pc, rpc, conn) -> {
+
+         FlightEvents.SearchCandidates candidates = new FlightEvents.SearchCandidates();
+         candidates.begin();
+
+         // Flights are read from wherever the session's reads go; the PreItineraries staging table is written on the primary
+
+         PreparedStatement clearItinerariesStatement = pc.statement(CLEAR_ITINERARIES);
+         PreparedStatement oneFlightStatement = rpc.statement(ONE_FLIGHT);
+         BatchWriter insertPreBatch = new BatchWriter(pc.statement(INSERT_PRE), PRE_BATCH_SIZE, PRE_BATCH_DELAY_MILLIS, preBatchTime);
+         PreparedStatement twoFlightStatement = rpc.statement(TWO_FLIGHT);
+         PreparedStatement pullCountStatement = pc.statement(PULL_COUNT);
+         PreparedStatement pullIndirectStatement = pc.statement(PULL_INDIRECT);
+         PreparedStatement fidValuesStatement = rpc.statement(FID_VALUES);
+         PreparedStatement pullDirectStatement = pc.statement(PULL_DIRECT);
+
+         // Clear up all stored itineraries
+
+         session.MapItineraries.clear();
+
+         // Set autocommit to false
+
+         try {
+
+            conn.setAutoCommit(false);
+
+            // Collects the itineraries found, in the order they are numbered
+
+            List<Itinerary> found = new ArrayList<>();
+
+            // Clear itineraries tables
+
+            try {
+
+               clearItinerariesStatement.clearParameters();
+               clearItinerariesStatement.executeUpdate();
+
+            } catch (SQLException e) {
+
+               e.printStackTrace();
+
+            }
+
+            // Insert direct flights into PreIntinerary table to help organize which flights the user actually wants
+
+            try {
+
+               // Find direct flights
+
+               oneFlightStatement.clearParameters();
+               oneFlightStatement.setInt(1, numberOfItineraries);
+               oneFlightStatement.setString(2, originCity);
+               oneFlightStatement.setString(3, destinationCity);
+               oneFlightStatement.setInt(4, dayOfMonth);
+               ResultSet rs = oneFlightStatement.executeQuery();
+               while (rs.next()) {
+
+                  // Queue direct flights for batched insertion into the PreIntinerary table
+
+                  try {
+                     int fid_one = rs.getInt("fid_one");
+                     int total_time = rs.getInt("total_time");
+
+                     // We set fid_two to -1 to indicate that it is a direct flight and that the value should largely be ignored
+
+                     insertPreBatch.add(fid_one, -1, total_time, 1);
+                     candidates.direct++;
+                  } catch (SQLException e) {
+                     e.printStackTrace();
+                  }
+               }
+
+               rs.close();
+
+               // Insert indirect flights into the preintinerary table to help organize which flights the user wants, if direct flights is false
+
+               if (!directFlight) {
+
+                  try {
+
+                     // Find indirect flights
+
+                     twoFlightStatement.clearParameters();
+                     twoFlightStatement.setInt(1, numberOfItineraries);
+                     twoFlightStatement.setString(2, originCity);
+                     twoFlightStatement.setString(3, destinationCity);
+                     twoFlightStatement.setInt(4, dayOfMonth);
+                     twoFlightStatement.setInt(5, dayOfMonth);
+                     ResultSet rs_two = twoFlightStatement.executeQuery();
+
+                     while (rs_two.next()) {
+
+                        try {
+
+                           // Queue each indirect flight for batched insertion into the PreIntinerary table
+
+                           int fid_one = rs_two.getInt("fid_one");
+                           int fid_two = rs_two.getInt("fid_two");
+                           int total_time = rs_two.getInt("total_time");
+                           insertPreBatch.add(fid_one, fid_two, total_time, 2);
+                           candidates.oneStop++;
+
+                        } catch (SQLException e) {
+                           e.printStackTrace();
+                        }
+                     }
+                     rs_two.close();
+                  } catch (SQLException e) {
+                     e.printStackTrace();
+                  }
+               }
+
+               // Send the rows still queued before the staged itineraries are read back
+
+               insertPreBatch.flush();
+
+            } catch (SQLException e) {
+               e.printStackTrace();
+            }
+
+
+            try {
+
+               // Sets the counter which will be used to keep track of itinerary number
+
+               int count = 0;
+
+               // Add indirect itineraries to the result (if directFlight is false)
+               // Only places the number of indirect flights that are needed due to a deficit of direct flights
+               // or in other words (number of requested intineraries - direct flight number).
+
+               if (!directFlight) {
+
+                  try {
+
+                     // Finds number of direct flights
+
+                     pullCountStatement.clearParameters();
+                     ResultSet rs_count = pullCountStatement.executeQuery();
+                     rs_count.next();
+                     int num_direct = rs_count.getInt("count");
+                     int num_indirect = numberOfItineraries - num_direct;
+
+                     try {
+
+                        // Find indirect flights
+
+                        pullIndirectStatement.clearParameters();
+                        pullIndirectStatement.setInt(1, num_indirect);
+                        ResultSet rs_three = pullIndirectStatement.executeQuery();
+
+                        while (rs_three.next()) {
+
+                           // Find itinerary information
+
+                           int fid_one = rs_three.getInt("fid_one");
+                           int fid_two = rs_three.getInt("fid_two");
+                           int total_time = rs_three.getInt("total_time");
+
+                           List<Flight> flights = new ArrayList<>();
+
+                           // Find flight values for fid_one and add them to the itinerary
+
+                           try {
+
+                              fidValuesStatement.clearParameters();
+                              fidValuesStatement.setInt(1, fid_one);
+                              ResultSet rs_fid_one = fidValuesStatement.executeQuery();
+                              rs_fid_one.next();
+                              flights.add(readFlight(rs_fid_one, fid_one, dayOfMonth));
+
+                           } catch (SQLException e) {
+                              e.printStackTrace();
+                           }
+
+                           // Find flight values for fid_two and add them to the itinerary
+
+                           try {
+
+                              fidValuesStatement.clearParameters();
+                              fidValuesStatement.setInt(1, fid_two);
+                              ResultSet rs_fid_two = fidValuesStatement.executeQuery();
+                              rs_fid_two.next();
+                              flights.add(readFlight(rs_fid_two, fid_two, dayOfMonth));
+
+                           } catch (SQLException e) {
+                              e.printStackTrace();
+                           } 
+
+                           // Insert itinerary data into the itinerary table
+
+                           int[] itineraries = {fid_one, fid_two};
+                           session.MapItineraries.put(count, itineraries);
+                           found.add(new Itinerary(count, total_time, flights));
+
+                           // Update the counter
+
+                           count = count + 1;                    
+
+                        }
+
+                        rs_three.close();
+
+                     } catch (SQLException e) {
+
+                        e.printStackTrace();
+
+                     }
+
+                  } catch (SQLException e) {
+
+                     e.printStackTrace();
+
+                  }
+
+               }
+
+               // Find direct flights
+
+               pullDirectStatement.clearParameters();
+               pullDirectStatement.setInt(1, numberOfItineraries);
+               ResultSet rs_three = pullDirectStatement.executeQuery();
+
+               while (rs_three.next()) {
+
+                  // Find itinerary information
+
+                  int fid_one = rs_three.getInt("fid_one");
+                  int fid_two = rs_three.getInt("fid_two");
+                  int total_time = rs_three.getInt("total_time");
+
+                  List<Flight> flights = new ArrayList<>();
+
+                  try {
+
+                     // Find flight information and add it to the itinerary
+
+                     fidValuesStatement.clearParameters();
+                     fidValuesStatement.setInt(1, fid_one);
+                     ResultSet rs_fid_one = fidValuesStatement.executeQuery();
+                     rs_fid_one.next();
+                     flights.add(readFlight(rs_fid_one, fid_one, dayOfMonth));
+
+                  } catch (SQLException e) {
+
+                     e.printStackTrace();
+
+                  }
+
+                  // Insert itinerary data into the itinerary table
+
+                  int[] itineraries = {fid_one, fid_two};
+                  session.MapItineraries.put(count, itineraries);
+                  found.add(new Itinerary(count, total_time, flights));
+
+                  count = count + 1;
+
+               }
+
+               rs_three.close();
+
+               // Clear pre-itineraries table
+
+               try {
+
+                  clearItinerariesStatement.clearParameters();
+                  clearItinerariesStatement.executeUpdate();
+
+               } catch (SQLException e) {
+
+                  e.printStackTrace();
+
+               }
+
+               // Commit all previous queries and set autocommit to true 
+
+               conn.commit();
+               conn.setAutoCommit(true);
+
+               candidates.itineraries = found.size();
+               candidates.commit();
+
+               // An empty result renders as no flights matching
+
+               return new SearchResult(found);
+
+          } catch (SQLException e) {
+
+            e.printStackTrace();
+
+          }
+
+      } catch (SQLException e) {
+
+         e.printStackTrace();
+      }  
+
+      try {
+
+         conn.setAutoCommit(false);
+         conn.rollback();
+         conn.setAutoCommit(true);
+
+      } catch (SQLException e) {
+
+         e.printStackTrace();
+
+      }      
+
+      return SearchResult.FAILED;
+      });
+  }
+
+  /**
+   * Implements the book itinerary function.
+   *
+   * @param session the user's session
+   * @param itineraryId ID of the itinerary to book. This must be one that is returned by search in
+   *                    the current session.
+   *
+   * @return If the user is not logged in, then return "Cannot book reservations, not logged in\n".
+   *         If the user is trying to book an itinerary with an invalid ID or without having done a
+   *         search, then return "No such itinerary {@code itineraryId}\n". If the user already has
+   *         a reservation on the same day as the one that they are trying to book now, then return
+   *         "You cannot book two flights in the same day\n". For all other errors, return "Booking
+   *         failed\n".
+   *
+   *         And if booking succeeded, return "Booked flight(s), reservation ID: [reservationId]\n"
+   *         where reservationId is a unique number in the reservation system that starts from 1 and
+   *         increments by 1 each time a successful reservation is made by any user in the system.
+   */
+   public String transaction_book(Session session, int itineraryId) {
+      return book(session, itineraryId).render();
+   }
+
+  /**
+   * Books like {@link #transaction_book}, returning the outcome instead of its text
+   */
+   public BookingOutcome book(Session session, int itineraryId) {
+      return Metrics.time("book", () -> runBook(session, itineraryId));
+   }
+
+   private BookingOutcome runBook(Session session, int itineraryId) {
+
+       // Check if user is logged in 
+
+       if (!session.logged_in) {
+
+          return BookingOutcome.of(BookingOutcome.Status.NOT_LOGGED_IN, itineraryId);
+       }
+
+       return withConnection(BookingOutcome.of(BookingOutcome.Status.FAILED, itineraryId), (pc, conn) -> {
+
+          PreparedStatement checkFullStatement = pc.statement(CHECK_FULL);
+          PreparedStatement countSameStatement = pc.statement(COUNT_SAME);
+          PreparedStatement flightCostStatement = pc.statement(FLIGHT_COST);
+          PreparedStatement bookItineraryStatement = pc.statement(BOOK_ITINERARY);
+
+          // Iterate through the following transaction multiple times in order to solve deadlock error 
+          // if multiple terminals/users booking actions coincide with one another
+
+          for (int i = 0; i < 3; i++) {
+
+             if (i > 0) {
+                Metrics.retry();
+                Trace.retry();
+             }
+
+             try {
+
+                conn.setAutoCommit(false);
+
+                // Check if there exists an itinerary within the itinerary tables with that specific ID
+
+                if (!session.MapItineraries.containsKey(itineraryId)) {
+
+                   try {
+
+                      conn.rollback();
+
+                   } catch (SQLException e) {
+
+                      e.printStackTrace();
+
+                   }
+
+                   return BookingOutcome.of(BookingOutcome.Status.NO_SUCH_ITINERARY, itineraryId);
+
+                }
+
+                // Get itinerary info 
+
+                int[] itineraries = session.MapItineraries.get(itineraryId);
+                int fid_one = itineraries[0];
+                int fid_two = itineraries[1];
+
+
+                   try {
+
+                      checkFullStatement.clearParameters();
+                      checkFullStatement.setInt(1, fid_one);
+                      checkFullStatement.setInt(2, fid_one);
+                      checkFullStatement.setInt(3, fid_one);
+                      ResultSet checkFullResultSet = checkFullStatement.executeQuery();
+                      checkFullResultSet.next();
+                      int seats_left = checkFullResultSet.getInt("seats_left");
+
+                      if (seats_left <= 0) {
+
+                         try {
+
+                            conn.rollback();
+
+                         } catch (SQLException e) {
+
+                            e.printStackTrace();
+
+                         }
+
+                         return BookingOutcome.of(BookingOutcome.Status.FAILED, itineraryId);
+
+                      }
+
+                      checkFullResultSet.close();
+
+                      if (fid_two != -1) {
+
+                         try {
+
+                            checkFullStatement.clearParameters();
+                            checkFullStatement.setInt(1, fid_two);
+                            checkFullStatement.setInt(2, fid_two);
+                            checkFullStatement.setInt(3, fid_two);
+                            checkFullResultSet = checkFullStatement.executeQuery();
+                            checkFullResultSet.next();
+                            seats_left = checkFullResultSet.getInt("seats_left");
+
+                            if (seats_left <= 0) {
+
+                               try {
+
+                                  conn.rollback();
+
+                               } catch (SQLException e) {
+
+                                  e.printStackTrace();
+
+                               }                              
+
+                               return BookingOutcome.of(BookingOutcome.Status.FAILED, itineraryId);
+
+                            }
+
+                            checkFullResultSet.close();
+
+                         } catch (SQLException e) {
+
+                               e.printStackTrace();
+
+                         }
+
+                      }
+
+                      // Checks if the user has already booked a flight on the same day
+
+                      try {
+
+                         countSameStatement.clearParameters();
+                         countSameStatement.setInt(1, fid_one);
+                         countSameStatement.setString(2, session.user_id);
+                         ResultSet countSameResultSet = countSameStatement.executeQuery();
+                         countSameResultSet.next();
+                         int same_day = countSameResultSet.getInt("same_day");
+
+                         if (same_day != 0) {
+
+                            try {
+
+                               conn.rollback();
+
+                            } catch (SQLException e) {
+
+                               e.printStackTrace();
+
+                            }    
+
+                            return BookingOutcome.of(BookingOutcome.Status.SAME_DAY, itineraryId);
+
+                         }
+
+                         if (fid_two != -1) {
+
+                            try {
+
+                               countSameStatement.clearParameters();
+                               countSameStatement.setInt(1, fid_two);
+                               countSameStatement.setString(2, session.user_id);
+                               countSameResultSet = countSameStatement.executeQuery();
+                               countSameResultSet.next();
+                               same_day = countSameResultSet.getInt("same_day");
+
+                               if (same_day != 0) {
+
+                                  try {
+
+                                     conn.rollback();
+
+                                  } catch (SQLException e) {
+
+                                     e.printStackTrace();
+
+                                  }
+
+                                  return BookingOutcome.of(BookingOutcome.Status.SAME_DAY, itineraryId);
+
+                               }
+
+                            } catch (SQLException e) {
+
+                               e.printStackTrace();
+                               conn.rollback();
+
+                            }
+
+                         }
+
+                      // Finds cost of flight for fid_one and fid_two
+
+                      try {
+
+                         flightCostStatement.clearParameters();
+                         flightCostStatement.setInt(1, fid_one);
+                         ResultSet flightCostResultSet = flightCostStatement.executeQuery();
+                         flightCostResultSet.next();
+                         int fid_one_cost = flightCostResultSet.getInt("flight_cost");
+                         int fid_two_cost = 0;
+                         if (fid_two != -1) {
+
+                            try {
+
+                               flightCostStatement.clearParameters();
+                               flightCostStatement.setInt(1, fid_two);
+                               flightCostResultSet = flightCostStatement.executeQuery();
+                               flightCostResultSet.next();
+                               fid_two_cost = flightCostResultSet.getInt("flight_cost");  
+
+                            } catch (SQLException e) {
+
+                               e.printStackTrace();
+                               conn.rollback();
+
+                            }                      
+                         } 
+
+                         // Books flight for the user
+
+                         try {
+
+                            bookItineraryStatement.clearParameters();
+                            bookItineraryStatement.setInt(1, fid_one);
+                            bookItineraryStatement.setInt(2, fid_two);
+                            bookItineraryStatement.setInt(3, fid_one_cost + fid_two_cost);
+                            bookItineraryStatement.setString(4, session.user_id);
+                            bookItineraryStatement.setInt(5, 0);
+
+                            // The insert returns the reservation id it was given
+
+                            try {
+
+                               ResultSet bookItineraryResultSet = bookItineraryStatement.executeQuery();
+                               bookItineraryResultSet.next();
+                               int re_id = bookItineraryResultSet.getInt("re_id");
+                               bookItineraryResultSet.close();
+
+                               // Commit all the previous queries as a single transaction and set autocommit to true
+
+                               conn.commit();
+                               conn.setAutoCommit(true);
+                               reservationCache.invalidate(session.user_id);
+                               ReservationCompactor.recordActivity();
+                               session.last_write_millis = System.currentTimeMillis();
+
+                               return new BookingOutcome(BookingOutcome.Status.BOOKED, itineraryId, re_id);
+
+                            } catch (SQLException e) {
+
+                               e.printStackTrace();
+                               conn.rollback();
+
+                            }
+
+                         } catch (SQLException e) {
+
+                            e.printStackTrace();
+                            conn.rollback();
+
+                         }  
+
+                      } catch (SQLException e) {
+
+                         e.printStackTrace();
+                         conn.rollback();
+
+                      }
+
+                   } catch (SQLException e) {
+
+                      e.printStackTrace();
+                      conn.rollback();
+
+                   }       
+
+                } catch (SQLException e) {
+
+                   e.printStackTrace();
+                   conn.rollback();
+
+                } 
+
+             } catch (SQLException e) {
+
+                e.printStackTrace();
+
+                try {
+
+                   conn.rollback();
+
+                } catch (SQLException se) {
+
+                   se.printStackTrace();
+
+                }
+             }
+          }
+
+          try {
+
+             conn.setAutoCommit(false);
+             conn.rollback();
+             conn.setAutoCommit(true);
+
+          } catch (SQLException e) {
+
+             e.printStackTrace();
+
+          }
+
+          try {
+
+             conn.rollback();
+
+          } catch (SQLException e) {
+
+             e.printStackTrace();
+
+          }         
+
+          return BookingOutcome.of(BookingOutcome.Status.FAILED, itineraryId);
+       });
+   }
+
+  /**
+   * Implements the pay function.
+   *
+   * @param session the user's session
+   * @param reservationId the reservation to pay for.
+   *
+   * @return If no user has logged in, then return "Cannot pay, not logged in\n" If the reservation
+   *         is not found / not under the logged in user's name, then return "Cannot find unpaid
+   *         reservation [reservationId] under user: [username]\n" If the user does not have enough
+   *         money in their account, then return "User has only [balance] in account but itinerary
+   *         costs [cost]\n" For all other errors, return "Failed to pay for reservation
+   *         [reservationId]\n"
+   *
+   *         If successful, return "Paid reservation: [reservationId] remaining balance:
+   *         [balance]\n" where [balance] is the remaining balance in the user's account.
+   */
+  public String transaction_pay(Session session, int reservationId) {
+    return pay(session, reservationId).render();
+  }
+
+  /**
+   * Pays like {@link #transaction_pay}, returning the outcome instead of its text
+   */
+  public PaymentOutcome pay(Session session, int reservationId) {
+     return Metrics.time("pay", () -> runPay(session, reservationId));
+  }
+
+  private PaymentOutcome runPay(Session session, int reservationId) {
+
+    // Checks if user is logged in
+
+    if (!session.logged_in) {
+
+       return PaymentOutcome.of(PaymentOutcome.Status.NOT_LOGGED_IN, reservationId, null);   
+
+    }
+
+    return withConnection(PaymentOutcome.of(PaymentOutcome.Status.FAILED, reservationId, session.user_id), (pc, conn) -> {
+
+       PreparedStatement payReservationStatement = pc.statement(PAY_RESERVATION);
+       Ledger ledger = new Ledger(pc);
+
+       // The pay flag is flipped with a conditional single-row update, so whether the reservation exists is decided by
+       // the row it touches; the loop only retries when the server picks us as a deadlock victim
+
+       for (int i = 0; i < 3; i++) {
+
+          if (i > 0) {
+             Metrics.retry();
+             Trace.retry();
+          }
+
+          try {
+
+             conn.setAutoCommit(false);
+
+             // Marks the reservation as paid if it is an unpaid reservation under the user's ID, returning its price
+
+             payReservationStatement.clearParameters();
+             payReservationStatement.setString(1, session.user_id);
+             payReservationStatement.setInt(2, reservationId);
+             ResultSet payReservationResultSet = payReservationStatement.executeQuery();
+
+             if (!payReservationResultSet.next()) {
+
+                payReservationResultSet.close();
+                conn.rollback();
+                conn.setAutoCommit(true);
+                return PaymentOutcome.of(PaymentOutcome.Status.NOT_FOUND, reservationId, session.user_id);
+
+             }
+
+             int total_price = payReservationResultSet.getInt("total_price");
+             payReservationResultSet.close();
+
+             // Subtracts the price from the user's money with a conditional debit, which is only made if the balance covers it
+
+             Ledger.Debit debit = ledger.debit(session.user_id, total_price, reservationId);
+
+             if (!debit.made()) {
+
+                // Undo the pay flag
+
+                conn.rollback();
+                conn.setAutoCommit(true);
+                return new PaymentOutcome(PaymentOutcome.Status.INSUFFICIENT_FUNDS, reservationId, session.user_id, debit.balance(), total_price);
+
+             }
+
+             conn.commit();
+             conn.setAutoCommit(true);
+             reservationCache.invalidate(session.user_id);
+             ReservationCompactor.recordActivity();
+             session.last_write_millis = System.currentTimeMillis();
+
+             return new PaymentOutcome(PaymentOutcome.Status.PAID, reservationId, session.user_id, debit.balance(), total_price);
+
+          } catch (SQLException e) {
+
+             try {
+
+                conn.rollback();
+
+             } catch (SQLException se) {
+
+                se.printStackTrace();
+
+             }
+
+             if (!isDeadLock(e)) {
+
+                e.printStackTrace();
+                break;
+
+             }
+
+          }
+
+       }
+
+       return PaymentOutcome.of(PaymentOutcome.Status.FAILED, reservationId, session.user_id);
+    });
+  }
+
+  /**
+   * Implements the reservations function.
+   *
+   * @param session the user's session
+   *
+   * @return If no user has logged in, then return "Cannot view reservations, not logged in\n" If
+   *         the user has no reservations, then return "No reservations found\n" For all other
+   *         errors, return "Failed to retrieve reservations\n"
+   *
+   *         Otherwise return the reservations in the following format:
+   *
+   *         Reservation [reservation ID] paid: [true or false]:\n [flight 1 under the
+   *         reservation]\n [flight 2 under the reservation]\n Reservation [reservation ID] paid:
+   *         [true or false]:\n [flight 1 under the reservation]\n [flight 2 under the
+   *         reservation]\n ...
+   *
+   *         Each flight should be printed using the same format as in the {@code Flight} class.
+   *
+   * @see Flight#toString()
+   */
+  public String transaction_reservations(Session session) {
+    return reservations(session).render();
+  }
+
+  /**
+   * Lists reservations like {@link #transaction_reservations}, returning them instead of their text
+   */
+  public ReservationsResult reservations(Session session) {
+     return Metrics.time("reservations", () -> runReservations(session));
+  }
+
+  private ReservationsResult runReservations(Session session) {
+
+    // Checks if user is logged in
+
+    if (!session.logged_in) {
+
+       return ReservationsResult.NOT_LOGGED_IN;
+
+    }
+
+    // Returns the cached listing if none of the user's reservations changed since it was built
+
+    ReservationsResult cached = reservationCache.get(session.user_id);
+
+    if (cached != null) {
+
+       return cached;
+
+    }
+
+    // Only a listing read from the primary is cached. The cache is shared by every session of the user, and another
+    // session that is not pinned to the primary after this user's last write could read a lagging copy
+
+    boolean fromCopy = readsFromCopy(session);
+
+    return withConnection(fromCopy ? readPool : pool, ReservationsResult.FAILED, (pc, conn) -> {
+
+       PreparedStatement userReservationsStatement = pc.statement(USER_RESERVATIONS);
+
+       long stamp = reservationCache.stamp(session.user_id);
+
+       // Gets all reservations for the user along with the flights they are for, in a single query
+
+       try {
+
+          // Collects the reservations in ID order
+
+          List<Reservation> found = new ArrayList<>();
+
+          userReservationsStatement.clearParameters();
+          userReservationsStatement.setString(1, session.user_id);
+          ResultSet userReservationsResultSet = userReservationsStatement.executeQuery();
+
+          while (userReservationsResultSet.next()) {
+
+             int re_id = userReservationsResultSet.getInt("re_id");
+             boolean paid = userReservationsResultSet.getInt("pay") == 1;
+             List<Flight> flights = new ArrayList<>();
+             flights.add(readFlight(userReservationsResultSet, "_one"));
+
+             if (userReservationsResultSet.getInt("fid_two") != -1) {
+
+                flights.add(readFlight(userReservationsResultSet, "_two"));
+
+             }
+
+             found.add(new Reservation(re_id, paid, flights));
+
+          }
+
+          userReservationsResultSet.close();
+
+          ReservationsResult result = new ReservationsResult(found);
+
+          if (!fromCopy) {
+
+             reservationCache.put(session.user_id, stamp, result);
+
+          }
+
+          return result;
+
+       } catch (SQLException e) {
+
+          e.printStackTrace();
+
+       }
+
+       return ReservationsResult.FAILED;
+    });
+  }
+
+  /**
+   * Implements the cancel operation.
+   *
+   * @param session the user's session
+   * @param reservationId the reservation ID to cancel
+   *
+   * @return If no user has logged in, then return "Cannot cancel reservations, not logged in\n" For
+   *         all other errors, return "Failed to cancel reservation [reservationId]\n"
+   *
+   *         If successful, return "Canceled reservation [reservationId]\n"
+   *
+   *         Even though a reservation has been canceled, its ID should not be reused by the system.
+   */
+  public String transaction_cancel(Session session, int reservationId) {
+    return cancel(session, reservationId).render();
+  }
+
+  /**
+   * Cancels like {@link #transaction_cancel}, returning the outcome instead of its text
+   */
+  public CancelOutcome cancel(Session session, int reservationId) {
+     return Metrics.time("cancel", () -> runCancel(session, reservationId));
+  }
+
+  private CancelOutcome runCancel(Session session, int reservationId) {
+
+    // Checks if user is logged in
+
+    if (!session.logged_in) {
+
+       return new CancelOutcome(CancelOutcome.Status.NOT_LOGGED_IN, reservationId);
+
+    }
+
+    return withConnection(new CancelOutcome(CancelOutcome.Status.FAILED, reservationId), (pc, conn) -> {
+
+       PreparedStatement cancelReservationStatement = pc.statement(CANCEL_RESERVATION);
+       Ledger ledger = new Ledger(pc);
+
+       for (int i = 0; i < 3; i++) {
+
+          if (i > 0) {
+             Metrics.retry();
+             Trace.retry();
+          }
+
+          try {
+
+             conn.setAutoCommit(false);
+
+             // Tombstones the reservation if it is a live reservation under the user's ID, returning what is needed for the refund
+
+             cancelReservationStatement.clearParameters();
+             cancelReservationStatement.setString(1, session.user_id);
+             cancelReservationStatement.setInt(2, reservationId);
+             ResultSet cancelReservationResultSet = cancelReservationStatement.executeQuery();
+
+             if (!cancelReservationResultSet.next()) {
+
+                cancelReservationResultSet.close();
+                conn.rollback();
+                conn.setAutoCommit(true);
+                return new CancelOutcome(CancelOutcome.Status.FAILED, reservationId);
+
+             }
+
+             int pay = cancelReservationResultSet.getInt("pay");
+             int total_price = cancelReservationResultSet.getInt("total_price");
+             cancelReservationResultSet.close();
+
+             // Refunds reservation if reservation was paid for
+
+             if (pay == 1) {
+
+                ledger.credit(session.user_id, total_price, reservationId);
+
+             }
+
+             conn.commit();
+             conn.setAutoCommit(true);
+             reservationCache.invalidate(session.user_id);
+             ReservationCompactor.recordActivity();
+             session.last_write_millis = System.currentTimeMillis();
+
+             return new CancelOutcome(CancelOutcome.Status.CANCELLED, reservationId);
+
+          } catch (SQLException e) {
+
+             try {
+
+                conn.rollback();
+
+             } catch (SQLException se) {
+
+                se.printStackTrace();
+
+             }
+
+             if (!isDeadLock(e)) {
+
+                e.printStackTrace();
+                break;
+
+             }
+
+          }
+
+       }
+
+       return new CancelOutcome(CancelOutcome.Status.FAILED, reservationId);
+    });
+  }
+
+  /**
+   * Reads one flight out of a row that holds the columns of several flights, each named with the given suffix
+   */
+  private Flight readFlight(ResultSet rs, String suffix) throws SQLException {
+    return new Flight(rs.getInt("fid" + suffix), rs.getInt("day_of_month" + suffix),
+        rs.getString("carrier_id" + suffix), rs.getString("flight_num" + suffix),
+        rs.getString("origin_city" + suffix), rs.getString("dest_city" + suffix),
+        rs.getInt("actual_time" + suffix), rs.getInt("capacity" + suffix), rs.getInt("price" + suffix));
+  }
+
+  /**
+   * Reads the flight with the given ID, flown on the given day, out of a row of flight values
+   */
+  private Flight readFlight(ResultSet rs, int fid, int dayOfMonth) throws SQLException {
+    return new Flight(fid, dayOfMonth, rs.getString("carrier_id"), rs.getString("flight_num"),
+        rs.getString("origin_city"), rs.getString("dest_city"), rs.getInt("actual_time"),
+        rs.getInt("capacity"), rs.getInt("price"));
+  }
+
+  /**
+   * Example utility function that uses prepared statements
+   */
+  private int checkFlightCapacity(ConnectionPool.PooledConnection pc, int fid) throws SQLException {
+    PreparedStatement checkFlightCapacityStatement = pc.statement(CHECK_FLIGHT_CAPACITY);
+    checkFlightCapacityStatement.clearParameters();
+    checkFlightCapacityStatement.setInt(1, fid);
+    ResultSet results = checkFlightCapacityStatement.executeQuery();
+    results.next();
+    int capacity = results.getInt("capacity");
+    results.close();
+
+    return capacity;
+  }
+
+  /**
+   * Throw IllegalStateException if transaction not completely complete; the pool rolls it back.
+   *
+   * The pooled connection itself tracks whether a statement ran since the last commit or rollback,
+   * so checking costs no round trip. When {@code flightapp.debug.trancount_sample} is set, the
+   * server's @@TRANCOUNT is checked as well after every Nth command, to catch transactions opened
+   * behind the tracking's back.
+   */
+  private void checkDanglingTransaction(ConnectionPool.PooledConnection pc) {
+    try {
+      if (pc.inTransaction()) {
+        throw new IllegalStateException("Transaction not fully commit/rollback");
+      }
+      if (TRANCOUNT_SAMPLE > 0 && commandsRun.incrementAndGet() % TRANCOUNT_SAMPLE == 0) {
+        try (ResultSet rs = pc.statement(TRANCOUNT_SQL).executeQuery()) {
+          rs.next();
+          int count = rs.getInt("tran_count");
+          if (count > 0) {
+            throw new IllegalStateException(
+                "Transaction not fully commit/rollback. Number of transaction in process: " + count);
+          }
+        }
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Database error", e);
+    }
+  }
+
+  private static boolean isDeadLock(SQLException ex) {
+    return ex.getErrorCode() == 1205;
+  }
+
+  private static boolean isDuplicateKey(SQLException ex) {
+    return ex.getErrorCode() == 2627 || ex.getErrorCode() == 2601;
+  }
+}
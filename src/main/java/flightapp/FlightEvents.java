@@ -0,0 +1,97 @@
+package flightapp;
+
+import jdk.jfr.*;
+
+/**
+ * Java Flight Recorder events for the flight operations, so a recording can tie CPU samples, GC
+ * pauses and lock stalls to the command and statement that suffered them.
+ *
+ * Every event is emitted on the thread running the command, inside the {@link Operation} event
+ * for that command. Any running recording records them unless its settings turn the
+ * {@code flightapp} events off. With no recording running, emitting one costs a check of a flag,
+ * and nothing extra is wrapped or counted. Start a recording with e.g.
+ * {@code java -XX:StartFlightRecording=filename=flights.jfr,settings=profile ...}.
+ */
+final class FlightEvents {
+  private FlightEvents() {
+  }
+
+  @Name("flightapp.Operation")
+  @Label("Flight Operation")
+  @Description("One engine operation, such as a login, search or booking")
+  @Category("Flights")
+  static class Operation extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Round Trips")
+    long roundTrips;
+
+    @Label("Retries")
+    long retries;
+  }
+
+  @Name("flightapp.Transaction")
+  @Label("Database Transaction")
+  @Description("From the first statement run outside auto-commit to the commit or rollback")
+  @Category("Flights")
+  static class Transaction extends Event {
+    @Label("Outcome")
+    @Description("commit or rollback")
+    String outcome;
+
+    @Label("Statements")
+    int statements;
+
+    @Label("Retries")
+    @Description("Times the operation had retried before this transaction ended")
+    long retries;
+  }
+
+  @Name("flightapp.Statement")
+  @Label("SQL Statement")
+  @Description("One statement execution, and for queries the reading of its rows")
+  @Category("Flights")
+  @StackTrace(false)
+  static class Statement extends Event {
+    @Label("Statement")
+    @Description("Name of the constant holding the SQL")
+    String name;
+
+    @Label("Rows")
+    @Description("Rows read for queries, rows changed for updates and batches")
+    long rows;
+  }
+
+  @Name("flightapp.PasswordHash")
+  @Label("Password Hash")
+  @Description("Hashing a password for a login or new account, including the wait for a worker")
+  @Category("Flights")
+  static class PasswordHash extends Event {
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Iterations")
+    int iterations;
+
+    @Label("Hash Time")
+    @Description("Time spent hashing, without the wait for a worker")
+    @Timespan(Timespan.NANOSECONDS)
+    long hashTime;
+  }
+
+  @Name("flightapp.SearchCandidates")
+  @Label("Search Candidates")
+  @Description("How many candidate flights a search staged and how many itineraries it returned")
+  @Category("Flights")
+  static class SearchCandidates extends Event {
+    @Label("Direct Candidates")
+    int direct;
+
+    @Label("One-Stop Candidates")
+    int oneStop;
+
+    @Label("Itineraries")
+    int itineraries;
+  }
+}
@@ -0,0 +1,13 @@
+package flightapp;
+
+/**
+ * Typed outcome of a command, returned by the {@link FlightEngine} methods that programmatic
+ * clients call instead of parsing the text protocol.
+ */
+public sealed interface FlightResult
+    permits SearchResult, ReservationsResult, BookingOutcome, PaymentOutcome, CancelOutcome {
+  /**
+   * The response the text protocol sends for this outcome.
+   */
+  String render();
+}
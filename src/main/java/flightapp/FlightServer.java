@@ -0,0 +1,206 @@
+package flightapp;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Serves the Flights command protocol to many TCP clients at once.
+ *
+ * Clients send the same one-line commands the REPL accepts. After each command the server writes
+ * the response followed by an empty line, which marks the end of the response. Every client gets
+ * its own {@link Session} and runs on its own virtual thread, so an idle client costs a few
+ * kilobytes instead of a platform thread. All clients share one {@link FlightEngine}.
+ *
+ * Two limits protect the server:
+ * <ul>
+ * <li>at most {@code maxSessions} clients are connected at a time; a client beyond that is told
+ * the server is busy and disconnected, and</li>
+ * <li>at most {@code maxInFlight} commands run at a time; further commands wait their turn. This
+ * also bounds how many virtual threads can be pinned to carrier threads inside the JDBC driver.</li>
+ * </ul>
+ */
+public class FlightServer implements Closeable {
+  public static final int DEFAULT_PORT = 9414;
+
+  // System properties that override the default limits
+  public static final String MAX_SESSIONS_PROPERTY = "flightapp.server.max_sessions";
+  public static final String MAX_IN_FLIGHT_PROPERTY = "flightapp.server.max_in_flight";
+
+  public static final int DEFAULT_MAX_SESSIONS = 10000;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+  static final String BUSY = "Error: Server is busy, please try again later\n";
+  static final String GOODBYE = "Goodbye\n";
+  // Sent when a command throws; what went wrong is only logged, since it can name the schema
+  static final String FAILED = "Error: command failed\n";
+
+  private final FlightEngine engine;
+  private final ServerSocket serverSocket;
+  private final Semaphore sessions;
+  private final Semaphore inFlight;
+  private final ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+
+  private final AtomicInteger activeSessions = new AtomicInteger();
+  private final AtomicInteger peakSessions = new AtomicInteger();
+  private final AtomicLong rejectedSessions = new AtomicLong();
+  private final LatencyStats inFlightWait = new LatencyStats();
+
+  public FlightServer(FlightEngine engine, int port, int maxSessions, int maxInFlight)
+      throws IOException {
+    this.engine = engine;
+    this.serverSocket = new ServerSocket(port, maxSessions);
+    this.sessions = new Semaphore(maxSessions);
+    this.inFlight = new Semaphore(maxInFlight, true);
+  }
+
+  /**
+   * Returns a server on the given port with the limits from system properties.
+   */
+  public static FlightServer withSystemProperties(FlightEngine engine, int port) throws IOException {
+    return new FlightServer(engine, port,
+        Integer.getInteger(MAX_SESSIONS_PROPERTY, DEFAULT_MAX_SESSIONS),
+        Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, DEFAULT_MAX_IN_FLIGHT));
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts clients until the server is closed.
+   */
+  public void serve() throws IOException {
+    while (!serverSocket.isClosed()) {
+      Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (SocketException e) {
+        // Closed while waiting for a client
+        break;
+      }
+      if (!sessions.tryAcquire()) {
+        rejectedSessions.incrementAndGet();
+        reject(socket);
+        continue;
+      }
+      clients.submit(() -> {
+        try {
+          handle(socket);
+        } finally {
+          sessions.release();
+        }
+      });
+    }
+  }
+
+  private static void reject(Socket socket) {
+    try (socket) {
+      socket.getOutputStream().write((BUSY + "\n").getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      // The client is being turned away anyway
+    }
+  }
+
+  /**
+   * Runs one client's commands until it quits or disconnects.
+   */
+  private void handle(Socket socket) {
+    int active = activeSessions.incrementAndGet();
+    peakSessions.accumulateAndGet(active, Math::max);
+    Session session = new Session();
+    try (socket;
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new BufferedWriter(
+            new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+      String command;
+      while ((command = in.readLine()) != null) {
+        String token = session.getSessionToken();
+        String response = execute(session, command);
+        out.write(frame(session, token, response));
+        out.flush();
+        if (response.equals(GOODBYE)) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      // The client went away; its session goes with it
+    } finally {
+      session.reset();
+      activeSessions.decrementAndGet();
+    }
+  }
+
+  /**
+   * Formats a response for the wire: the response itself, the new session token if the command
+   * issued one, and the empty line that ends every response.
+   *
+   * @param tokenBefore the session's token before the command ran
+   */
+  static String frame(Session session, String tokenBefore, String response) {
+    StringBuilder sb = new StringBuilder(response);
+    if (!response.endsWith("\n")) {
+      sb.append("\n");
+    }
+    String token = session.getSessionToken();
+    if (token != null && !token.equals(tokenBefore)) {
+      sb.append("Session token: ").append(token).append("\n");
+    }
+    return sb.append("\n").toString();
+  }
+
+  /**
+   * Runs a command once one of the in-flight slots is free. A command that throws gets the
+   * {@link #FAILED} response, so one bad line does not drop the client's session.
+   */
+  private String execute(Session session, String command) {
+    long start = System.nanoTime();
+    inFlight.acquireUninterruptibly();
+    inFlightWait.record(System.nanoTime() - start);
+    try {
+      return FlightService.execute(engine, session, command);
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+      return FAILED;
+    } finally {
+      inFlight.release();
+    }
+  }
+
+  /**
+   * Stops accepting clients and disconnects the connected ones.
+   */
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    clients.shutdownNow();
+  }
+
+  public int activeSessions() {
+    return activeSessions.get();
+  }
+
+  public int peakSessions() {
+    return peakSessions.get();
+  }
+
+  public long rejectedSessions() {
+    return rejectedSessions.get();
+  }
+
+  /**
+   * Time commands spent waiting for an in-flight slot.
+   */
+  public LatencyStats inFlightWait() {
+    return inFlightWait;
+  }
+
+  @Override
+  public String toString() {
+    return "sessions=" + activeSessions() + " peak=" + peakSessions() + " rejected="
+        + rejectedSessions() + ", in-flight wait: " + inFlightWait;
+  }
+}
@@ -2,7 +2,7 @@ package flightapp;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
 import java.sql.*;
 
 public class FlightService {
@@ -11,165 +11,122 @@ public class FlightService {
    * Execute the specified command on the database query connection
    */
   public static String execute(Query q, String command) {
-    String[] tokens = tokenize(command.trim());
-    String response;
-
-    // empty input
-    if (tokens.length == 0) {
-      response = "Please enter a command";
-    }
-
-    // login
-    else if (tokens[0].equals("login")) {
-      if (tokens.length == 3) {
-        String username = tokens[1];
-        String password = tokens[2];
-        response = q.transaction_login(username, password);
-      } else {
-        response = "Error: Please provide a username and password";
-      }
-    }
-
-    // create
-    else if (tokens[0].equals("create")) {
-      if (tokens.length == 4) {
-        String username = tokens[1];
-        String password = tokens[2];
-        int initAmount = Integer.parseInt(tokens[3]);
-        response = q.transaction_createCustomer(username, password, initAmount);
-      } else {
-        response = "Error: Please provide a username, password, and initial amount in the account";
-      }
-    }
-
-    // search
-    else if (tokens[0].equals("search")) {
-      if (tokens.length == 6) {
-        String originCity = tokens[1];
-        String destinationCity = tokens[2];
-        boolean direct = tokens[3].equals("1");
-        try {
-          int day = Integer.valueOf(tokens[4]);
-          int count = Integer.valueOf(tokens[5]);
-          response = q.transaction_search(originCity, destinationCity, direct, day, count);
-        } catch (NumberFormatException e) {
-          response = "Failed to parse integer";
-        }
-      } else {
-        response = "Error: Please provide all search parameters <origin_city> <destination_city> <direct> <date> <nb itineraries>";
-      }
-    }
-
-    // book
-    else if (tokens[0].equals("book")) {
-      if (tokens.length == 2) {
-        int itinerary_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_book(itinerary_id);
-      } else {
-        response = "Error: Please provide an itinerary_id";
-      }
-    }
-
-    // reservations
-    else if (tokens[0].equals("reservations")) {
-      response = q.transaction_reservations();
-    }
-
-    // pay
-    else if (tokens[0].equals("pay")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_pay(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
-
-    // cancel
-    else if (tokens[0].equals("cancel")) {
-      if (tokens.length == 2) {
-        int reservation_id = Integer.parseInt(tokens[1]);
-        response = q.transaction_cancel(reservation_id);
-      } else {
-        response = "Error: Please provide a reservation_id";
-      }
-    }
-
-    // quit
-    else if (tokens[0].equals("quit")) {
-      response = "Goodbye\n";
-    }
-
-    // unknown command
-    else {
-      response = "Error: unrecognized command '" + tokens[0] + "'";
-    }
+    return execute(q.getEngine(), q.getSession(), command);
+  }
 
-    return response;
+  /**
+   * Execute the specified command for the given session on the shared engine
+   */
+  public static String execute(FlightEngine engine, Session session, String command) {
+    return CommandDispatcher.execute(engine, session, command);
   }
 
   /**
    * Establishes an application-to-database connection and runs the Flights
-   * application REPL
+   * application REPL, or with the arguments "server [port]" or "nio-server [port]",
+   * serves the same commands to many TCP clients at once, or with the arguments
+   * "batch [file ...]", runs the scripts in the given files (or standard input)
+   * without prompting
    * 
    * @param args
    * @throws IOException
    */
   public static void main(String[] args) throws IOException, SQLException {
     /* prepare the database connection stuff */
-    Query q = new Query();
-    menu(q);
-    q.closeConnection();
+    FlightEngine engine = FlightEngine.sharedFromDbConn();
+    Session session = new Session();
+
+    /* archive old cancelled reservations in the background */
+    Connection compactorConn = FlightEngine.openConnectionFromDbConn();
+    ScheduledExecutorService compactor = ReservationCompactor.start(compactorConn);
+
+    if (args.length > 0 && args[0].equals("server")) {
+      int port = args.length > 1 ? Integer.parseInt(args[1]) : FlightServer.DEFAULT_PORT;
+      try (FlightServer server = FlightServer.withSystemProperties(engine, port)) {
+        System.out.println("Serving Flights on port " + server.getPort());
+        server.serve();
+      }
+    } else if (args.length > 0 && args[0].equals("nio-server")) {
+      int port = args.length > 1 ? Integer.parseInt(args[1]) : FlightServer.DEFAULT_PORT;
+      try (NioFlightServer server = NioFlightServer.withSystemProperties(engine, port)) {
+        System.out.println("Serving Flights on port " + server.getPort() + " (non-blocking)");
+        server.serve();
+      }
+    } else if (args.length > 0 && args[0].equals("batch")) {
+      batch(engine, Arrays.copyOfRange(args, 1, args.length));
+    } else {
+      menu(engine, session);
+    }
+    compactor.shutdownNow();
+    compactorConn.close();
+  }
+
+  /**
+   * Runs the scripts in the given files, or the one on standard input if none are
+   * given, with the options set by system properties
+   *
+   * @see BatchRunner
+   */
+  private static void batch(FlightEngine engine, String[] files) throws IOException {
+    List<List<String>> sessions = new ArrayList<>();
+    if (files.length == 0) {
+      sessions.addAll(BatchRunner.readSessions(new BufferedReader(new InputStreamReader(System.in))));
+    }
+    for (String file : files) {
+      try (BufferedReader r = new BufferedReader(new FileReader(file))) {
+        sessions.addAll(BatchRunner.readSessions(r));
+      }
+    }
+    try {
+      BatchRunner.withSystemProperties(engine).run(sessions, System.out, System.err);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
    * REPL (Read-Execute-Print-Loop) for Flights application for the specified
    * application-to-database connection
    * 
-   * @param q
+   * @param engine
+   * @param session
    * @throws IOException
    */
-  private static void menu(Query q) throws IOException {
+  private static void menu(FlightEngine engine, Session session) throws IOException {
+    BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
     while (true) {
       // print the command options
       System.out.println();
       System.out.println(" *** Please enter one of the following commands *** ");
       System.out.println("> create <username> <password> <initial amount>");
       System.out.println("> login <username> <password>");
+      System.out.println("> resume <session token>");
       System.out.println("> search <origin city> <destination city> <direct> <day of the month> <num itineraries>");
       System.out.println("> book <itinerary id>");
       System.out.println("> pay <reservation id>");
       System.out.println("> reservations");
       System.out.println("> cancel <reservation id>");
+      System.out.println("> metrics");
+      System.out.println("> trace <on|off>");
       System.out.println("> quit");
 
-      // read an input command from the REPL
-      BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
+      // read an input command from the REPL; end of input quits
       System.out.print("> ");
       String command = r.readLine();
+      if (command == null) {
+        break;
+      }
 
       // execute the given input command
-      String response = execute(q, command);
+      String token = session.getSessionToken();
+      String response = execute(engine, session, command);
       System.out.print(response);
+      if (session.getSessionToken() != null && !session.getSessionToken().equals(token)) {
+        System.out.println("Session token: " + session.getSessionToken());
+      }
       if (response.equals("Goodbye\n")) {
         break;
       }
     }
   }
-
-  /**
-   * Tokenize a string into a string array
-   */
-  private static String[] tokenize(String command) {
-    String regex = "\"([^\"]*)\"|(\\S+)";
-    Matcher m = Pattern.compile(regex).matcher(command);
-    List<String> tokens = new ArrayList<>();
-    while (m.find()) {
-      if (m.group(1) != null)
-        tokens.add(m.group(1));
-      else
-        tokens.add(m.group(2));
-    }
-    return tokens.toArray(new String[0]);
-  }
 }
@@ -0,0 +1,25 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * A direct flight or a one-stop pair of flights found by a search.
+ *
+ * @param number    the ID to book it by, valid until the session's next search
+ * @param totalTime combined duration of the flights in minutes
+ */
+public record Itinerary(int number, int totalTime, List<Flight> flights) {
+  public Itinerary {
+    flights = List.copyOf(flights);
+  }
+
+  public String render() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Itinerary ").append(number).append(": ").append(flights.size()).append(" flight(s), ")
+        .append(totalTime).append(" minutes\n");
+    for (Flight flight : flights) {
+      sb.append(flight).append("\n");
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,92 @@
+package flightapp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Thread-safe histogram of non-negative values, such as durations in nanoseconds, with about 3%
+ * precision across their whole range.
+ *
+ * Like an HDR histogram, values are counted in buckets that double in width with every power of
+ * two, each power split into 32 equal sub-buckets. Values below 64 get a bucket each. Recording is
+ * a couple of shifts and an atomic increment, and memory is fixed at about 15 KB whatever is
+ * recorded. Percentiles are read back as the upper end of the bucket they fall in.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int LINEAR = 2 * SUB_BUCKETS;
+  private static final int BUCKETS = LINEAR + (63 - (SUB_BITS + 1)) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one value; negative values are recorded as 0.
+   */
+  public void record(long value) {
+    value = Math.max(value, 0);
+    counts.incrementAndGet(bucket(value));
+    count.increment();
+    total.add(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  public long total() {
+    return total.sum();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public double mean() {
+    long n = count();
+    return n == 0 ? 0 : (double) total() / n;
+  }
+
+  /**
+   * Returns the value that {@code percentile} percent of the recorded values are at or below, or 0
+   * if nothing was recorded.
+   */
+  public long percentile(double percentile) {
+    long n = count();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), max());
+      }
+    }
+    return max();
+  }
+
+  static int bucket(long value) {
+    if (value < LINEAR) {
+      return (int) value;
+    }
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int shift = magnitude - SUB_BITS;
+    int top = (int) (value >>> shift) - SUB_BUCKETS;
+    return LINEAR + (magnitude - (SUB_BITS + 1)) * SUB_BUCKETS + top;
+  }
+
+  static long upperBound(int bucket) {
+    if (bucket < LINEAR) {
+      return bucket;
+    }
+    int magnitude = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+    long top = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+    int shift = magnitude - SUB_BITS;
+    return ((top + 1) << shift) - 1;
+  }
+}
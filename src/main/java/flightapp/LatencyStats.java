@@ -0,0 +1,44 @@
+package flightapp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Thread-safe count, total and maximum of a series of durations.
+ */
+public class LatencyStats {
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records one duration.
+   */
+  public void record(long nanos) {
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulateAndGet(nanos, Math::max);
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  public long totalNanos() {
+    return totalNanos.sum();
+  }
+
+  public long maxNanos() {
+    return maxNanos.get();
+  }
+
+  public double meanMillis() {
+    long n = count();
+    return n == 0 ? 0 : totalNanos() / 1e6 / n;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.3fms max=%.3fms", count(), meanMillis(),
+        maxNanos() / 1e6);
+  }
+}
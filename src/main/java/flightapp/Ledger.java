@@ -0,0 +1,120 @@
+package flightapp;
+
+import java.sql.*;
+
+/**
+ * Append-only record of every credit and debit to a user's account.
+ *
+ * A user's balance is never overwritten. It is the balance stored in the user's BalanceSnapshots
+ * row plus the sum of the LedgerEntries appended after that snapshot (the "tail"). A debit that
+ * leaves a tail of at least {@code SNAPSHOT_INTERVAL} entries folds the tail into the snapshot,
+ * so reads stay short no matter how much history a user has.
+ *
+ * A credit is a plain insert that locks nothing but its own new row, so deposits and refunds
+ * never wait for each other. A debit is a single batch: a conditional insert that only adds the
+ * entry if the balance covers it, the fold, and a read of the resulting balance. It locks the
+ * user's snapshot row first (UPDLOCK), which serializes one user's debits without range locks on
+ * their entries, so two payments by the same user queue up instead of deadlocking.
+ *
+ * Callers own the transaction: every method runs on the pooled connection passed to the
+ * constructor and never commits or rolls back.
+ */
+class Ledger {
+  // Number of tail entries a debit tolerates before folding them into the snapshot
+  static final int SNAPSHOT_INTERVAL = 32;
+
+  // Starts a user's snapshot at a zero balance that covers no entries
+  private static final String OPEN_SNAPSHOT = "INSERT INTO BalanceSnapshots (username, balance, last_entry_id) VALUES (?, 0, 0);";
+  private PreparedStatement openSnapshotStatement;
+
+  // Appends a credit (positive amount) to the user's history
+  private static final String APPEND_ENTRY = "INSERT INTO LedgerEntries (username, amount, re_id) VALUES (?, ?, ?);";
+  private PreparedStatement appendEntryStatement;
+
+  // Appends a debit only if the snapshot plus its tail covers it, moves the snapshot over a long tail, then reads the
+  // resulting balance, all in one round trip
+  private static final String DEBIT = "INSERT INTO LedgerEntries (username, amount, re_id) SELECT s.username, -?, ? " +
+                                      "FROM BalanceSnapshots AS s WITH (UPDLOCK) WHERE s.username = ? AND s.balance + ISNULL((SELECT SUM(e.amount) " +
+                                      "FROM LedgerEntries AS e WHERE e.username = s.username AND e.entry_id > s.last_entry_id), 0) >= ?; " +
+                                      "UPDATE s SET balance = s.balance + t.amount, last_entry_id = t.tail_end FROM BalanceSnapshots AS s " +
+                                      "CROSS APPLY (SELECT ISNULL(SUM(e.amount), 0) AS amount, MAX(e.entry_id) AS tail_end, COUNT(*) AS tail_entries " +
+                                      "FROM LedgerEntries AS e WHERE e.username = s.username AND e.entry_id > s.last_entry_id) AS t " +
+                                      "WHERE s.username = ? AND t.tail_entries >= ?; " +
+                                      "SELECT s.balance + ISNULL((SELECT SUM(e.amount) FROM LedgerEntries AS e " +
+                                      "WHERE e.username = s.username AND e.entry_id > s.last_entry_id), 0) AS balance " +
+                                      "FROM BalanceSnapshots AS s WHERE s.username = ?;";
+  private PreparedStatement debitStatement;
+
+  /**
+   * Whether a debit was made, and the user's balance after it, or their unchanged balance if not.
+   */
+  record Debit(boolean made, int balance) {
+  }
+
+  Ledger(ConnectionPool.PooledConnection pc) throws SQLException {
+    openSnapshotStatement = pc.statement(OPEN_SNAPSHOT);
+    appendEntryStatement = pc.statement(APPEND_ENTRY);
+    debitStatement = pc.statement(DEBIT);
+  }
+
+  /**
+   * Opens an account for a new user with the given starting balance.
+   */
+  void open(String username, int initialBalance) throws SQLException {
+    openSnapshotStatement.clearParameters();
+    openSnapshotStatement.setString(1, username);
+    openSnapshotStatement.executeUpdate();
+
+    if (initialBalance != 0) {
+      append(username, initialBalance, null);
+    }
+  }
+
+  /**
+   * Records money added to the user's account, e.g. a refund for a cancelled reservation.
+   */
+  void credit(String username, int amount, int reservationId) throws SQLException {
+    append(username, amount, reservationId);
+  }
+
+  /**
+   * Takes money out of the user's account if their balance covers it. Whether it did is decided by
+   * the row the conditional insert adds, so there is no read-then-write for another payment to
+   * slip between.
+   */
+  Debit debit(String username, int amount, int reservationId) throws SQLException {
+    debitStatement.clearParameters();
+    debitStatement.setInt(1, amount);
+    debitStatement.setInt(2, reservationId);
+    debitStatement.setString(3, username);
+    debitStatement.setInt(4, amount);
+    debitStatement.setString(5, username);
+    debitStatement.setInt(6, SNAPSHOT_INTERVAL);
+    debitStatement.setString(7, username);
+    debitStatement.execute();
+    boolean made = debitStatement.getUpdateCount() == 1;
+    // Skip the fold's update count to get to the balance
+    debitStatement.getMoreResults();
+    if (!debitStatement.getMoreResults()) {
+      throw new SQLException("No balance returned for user " + username);
+    }
+    try (ResultSet rs = debitStatement.getResultSet()) {
+      if (!rs.next()) {
+        throw new SQLException("No balance snapshot for user " + username);
+      }
+      return new Debit(made, rs.getInt("balance"));
+    }
+  }
+
+  private void append(String username, int amount, Integer reservationId) throws SQLException {
+    appendEntryStatement.clearParameters();
+    appendEntryStatement.setString(1, username);
+    appendEntryStatement.setInt(2, amount);
+    if (reservationId == null) {
+      appendEntryStatement.setNull(3, Types.INTEGER);
+    } else {
+      appendEntryStatement.setInt(3, reservationId);
+    }
+    appendEntryStatement.executeUpdate();
+  }
+}
@@ -0,0 +1,307 @@
+package flightapp;
+
+import java.lang.management.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import javax.management.*;
+
+/**
+ * Where the time goes: latency histograms of every operation (login, search, book and so on) and
+ * of every named SQL statement, the database round trips each operation makes, and counts of
+ * retries, deadlocks and rollbacks.
+ *
+ * Everything is process-wide, like the engines and pools it measures. Each operation and statement
+ * is published as an MXBean under {@code flightapp:type=Operation} or
+ * {@code flightapp:type=Statement} the first time it is recorded, and the counters under
+ * {@code flightapp:type=Counters}; the {@code metrics} command prints the same numbers as text.
+ *
+ * Statements are named after the constant holding their SQL, registered with
+ * {@link #nameStatements(Class)}. Round trips are statement executions, commits and rollbacks,
+ * counted per thread, so an operation's count is right as long as it runs on one thread.
+ */
+public final class Metrics {
+  /**
+   * Latency percentiles of an operation or statement, in milliseconds.
+   */
+  public interface LatencyMXBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+  }
+
+  public interface OperationMXBean extends LatencyMXBean {
+    double getMeanRoundTrips();
+
+    long getMaxRoundTrips();
+  }
+
+  public interface CountersMXBean {
+    long getRoundTrips();
+
+    long getRetries();
+
+    long getDeadlocks();
+
+    long getRollbacks();
+  }
+
+  private static class Latency implements LatencyMXBean {
+    final LatencyHistogram nanos = new LatencyHistogram();
+
+    public long getCount() {
+      return nanos.count();
+    }
+
+    public double getMeanMillis() {
+      return nanos.mean() / 1e6;
+    }
+
+    public double getP50Millis() {
+      return nanos.percentile(50) / 1e6;
+    }
+
+    public double getP90Millis() {
+      return nanos.percentile(90) / 1e6;
+    }
+
+    public double getP99Millis() {
+      return nanos.percentile(99) / 1e6;
+    }
+
+    public double getMaxMillis() {
+      return nanos.max() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms",
+          getCount(), getMeanMillis(), getP50Millis(), getP90Millis(), getP99Millis(),
+          getMaxMillis());
+    }
+  }
+
+  private static class Operation extends Latency implements OperationMXBean {
+    final LatencyHistogram roundTrips = new LatencyHistogram();
+
+    public double getMeanRoundTrips() {
+      return roundTrips.mean();
+    }
+
+    public long getMaxRoundTrips() {
+      return roundTrips.max();
+    }
+
+    @Override
+    public String toString() {
+      return super.toString()
+          + String.format(" round trips: mean=%.1f max=%d", getMeanRoundTrips(), getMaxRoundTrips());
+    }
+  }
+
+  private static class Counters implements CountersMXBean {
+    final LongAdder roundTrips = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final LongAdder deadlocks = new LongAdder();
+    final LongAdder rollbacks = new LongAdder();
+
+    public long getRoundTrips() {
+      return roundTrips.sum();
+    }
+
+    public long getRetries() {
+      return retries.sum();
+    }
+
+    public long getDeadlocks() {
+      return deadlocks.sum();
+    }
+
+    public long getRollbacks() {
+      return rollbacks.sum();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("round trips=%d retries=%d deadlocks=%d rollbacks=%d", getRoundTrips(),
+          getRetries(), getDeadlocks(), getRollbacks());
+    }
+  }
+
+  // Name given to statements whose SQL was not registered
+  static final String UNNAMED = "other";
+
+  private static final Map<String, String> STATEMENT_NAMES = new ConcurrentHashMap<>();
+  private static final Map<String, Operation> OPERATIONS = new ConcurrentSkipListMap<>();
+  private static final Map<String, Latency> STATEMENTS = new ConcurrentSkipListMap<>();
+  private static final Counters COUNTERS = new Counters();
+
+  // Round trips and retries made so far by the current thread, and its retries when its current
+  // operation started
+  private static final int ROUND_TRIPS = 0;
+  private static final int RETRIES = 1;
+  private static final int OPERATION_RETRIES = 2;
+  private static final ThreadLocal<long[]> THREAD_COUNTS = ThreadLocal.withInitial(() -> new long[3]);
+  // The operation running on the current thread
+  private static final ThreadLocal<String> CURRENT_OPERATION = new ThreadLocal<>();
+
+  static {
+    register("flightapp:type=Counters", COUNTERS);
+  }
+
+  private Metrics() {
+  }
+
+  /**
+   * Names each statement after the private {@code static final String} constant of the given class
+   * that holds its SQL.
+   */
+  public static void nameStatements(Class<?> owner) {
+    for (Field field : owner.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (field.getType() == String.class && Modifier.isPrivate(modifiers)
+          && Modifier.isStatic(modifiers) && Modifier.isFinal(modifiers)) {
+        try {
+          field.setAccessible(true);
+          STATEMENT_NAMES.put((String) field.get(null), field.getName());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the name registered for the SQL, or {@link #UNNAMED}.
+   */
+  static String statementName(String sql) {
+    return STATEMENT_NAMES.getOrDefault(sql, UNNAMED);
+  }
+
+  /**
+   * Runs an operation, recording how long it took and how many round trips it made, emitting a
+   * {@link FlightEvents.Operation} for it and logging it to the {@link SlowLog} if it was slow.
+   */
+  public static <T> T time(String operation, Supplier<T> body) {
+    long[] counts = THREAD_COUNTS.get();
+    long roundTripsBefore = counts[ROUND_TRIPS];
+    long outerOperationRetries = counts[OPERATION_RETRIES];
+    counts[OPERATION_RETRIES] = counts[RETRIES];
+    String outerOperation = CURRENT_OPERATION.get();
+    CURRENT_OPERATION.set(operation);
+    FlightEvents.Operation event = new FlightEvents.Operation();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      return body.get();
+    } finally {
+      long nanos = System.nanoTime() - start;
+      long roundTrips = counts[ROUND_TRIPS] - roundTripsBefore;
+      Operation o = OPERATIONS.computeIfAbsent(operation,
+          name -> register("flightapp:type=Operation,name=" + name, new Operation()));
+      o.nanos.record(nanos);
+      o.roundTrips.record(roundTrips);
+      if (event.shouldCommit()) {
+        event.operation = operation;
+        event.roundTrips = roundTrips;
+        event.retries = operationRetries();
+        event.commit();
+      }
+      if (SlowLog.get().isSlow(nanos)) {
+        SlowLog.get().operation(operation, nanos);
+      }
+      counts[OPERATION_RETRIES] = outerOperationRetries;
+      CURRENT_OPERATION.set(outerOperation);
+    }
+  }
+
+  /**
+   * Number of times the operation running on this thread has retried so far.
+   */
+  static long operationRetries() {
+    long[] counts = THREAD_COUNTS.get();
+    return counts[RETRIES] - counts[OPERATION_RETRIES];
+  }
+
+  /**
+   * Name of the operation running on this thread, or null if there is none.
+   */
+  static String currentOperation() {
+    return CURRENT_OPERATION.get();
+  }
+
+  /**
+   * Records one execution of a named statement, which is also a round trip.
+   */
+  static void recordStatement(String name, long nanos) {
+    STATEMENTS.computeIfAbsent(name,
+        n -> register("flightapp:type=Statement,name=" + n, new Latency())).nanos.record(nanos);
+    roundTrip();
+  }
+
+  /**
+   * Records a round trip that is not a statement, such as a commit.
+   */
+  static void roundTrip() {
+    THREAD_COUNTS.get()[ROUND_TRIPS]++;
+    COUNTERS.roundTrips.increment();
+  }
+
+  /**
+   * Records that a transaction is being tried again.
+   */
+  static void retry() {
+    THREAD_COUNTS.get()[RETRIES]++;
+    COUNTERS.retries.increment();
+  }
+
+  /**
+   * Records that the server chose one of our transactions as a deadlock victim.
+   */
+  static void deadlock() {
+    COUNTERS.deadlocks.increment();
+  }
+
+  /**
+   * Records a rollback of a transaction that had done some work.
+   */
+  static void rollback() {
+    COUNTERS.rollbacks.increment();
+  }
+
+  /**
+   * Every metric as text, one per line.
+   */
+  public static String dump() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(COUNTERS).append("\n");
+    for (Map.Entry<String, Operation> e : OPERATIONS.entrySet()) {
+      sb.append(String.format("operation %-20s %s\n", e.getKey(), e.getValue()));
+    }
+    for (Map.Entry<String, Latency> e : STATEMENTS.entrySet()) {
+      sb.append(String.format("statement %-20s %s\n", e.getKey(), e.getValue()));
+    }
+    return sb.toString();
+  }
+
+  private static <T> T register(String name, T bean) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+    } catch (InstanceAlreadyExistsException e) {
+      // Registered by another copy of these classes, e.g. in another class loader
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+    return bean;
+  }
+}
@@ -0,0 +1,416 @@
+package flightapp;
+
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Serves the same protocol as {@link FlightServer} from a single selector thread, for tiers that
+ * hold many slow connections that are mostly idle.
+ *
+ * The selector thread only moves bytes. It splits each client's input into command lines as they
+ * arrive, and clients may send several commands without waiting for the responses. A client's
+ * commands are run one at a time, in the order they were sent, on a bounded pool of worker
+ * threads that does the blocking JDBC work. Each response is queued as a buffer and handed back
+ * to the selector as soon as its command finishes, so it is written while the client's later
+ * commands still run. The selector writes them out in order with gathering writes, without
+ * copying them into a shared output buffer.
+ *
+ * A client that has {@code maxPipelined} commands waiting is not read from until some of them
+ * finish; lines it already sent beyond that stay buffered until then. A command that arrives
+ * while every worker and queue slot is taken is answered with the busy message.
+ */
+public class NioFlightServer implements Closeable {
+  // System properties that override the default limits
+  public static final String WORKERS_PROPERTY = "flightapp.server.workers";
+  public static final String MAX_PIPELINED_PROPERTY = "flightapp.server.max_pipelined";
+
+  public static final int DEFAULT_MAX_PIPELINED = 32;
+
+  // Longest command line accepted; a client that sends a longer one is disconnected
+  private static final int MAX_LINE_BYTES = 8192;
+
+  private final FlightEngine engine;
+  private final int maxSessions;
+  private final int maxPipelined;
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final ThreadPoolExecutor workers;
+
+  // Clients whose output or read interest changed off the selector thread
+  private final Queue<Client> changed = new ConcurrentLinkedQueue<>();
+
+  private final AtomicInteger activeSessions = new AtomicInteger();
+  private final AtomicLong rejectedSessions = new AtomicLong();
+  private final AtomicLong rejectedCommands = new AtomicLong();
+  private final LatencyStats commandTime = new LatencyStats();
+
+  private volatile boolean running = true;
+
+  /**
+   * One connected client: its session, the bytes of a command line still being received, the
+   * commands waiting to run and the responses waiting to be written.
+   */
+  private class Client {
+    final SocketChannel channel;
+    final SelectionKey key;
+    final Session session = new Session();
+    final ByteBuffer in = ByteBuffer.allocate(MAX_LINE_BYTES);
+
+    // Guarded by this
+    final ArrayDeque<String> commands = new ArrayDeque<>();
+    boolean draining = false;
+    boolean quit = false;
+
+    final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+
+    Client(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    /**
+     * Runs queued commands until there are none left. Only one drain runs per client at a time,
+     * which keeps its commands in order and its session single-threaded.
+     */
+    void drain() {
+      while (true) {
+        String command;
+        boolean disconnected;
+        synchronized (this) {
+          command = commands.poll();
+          disconnected = command == null && quit;
+          if (command == null) {
+            draining = false;
+          }
+        }
+        if (command == null) {
+          if (disconnected) {
+            // The client went away while this drain ran, and left resetting the session to it
+            session.reset();
+          }
+          break;
+        }
+        long start = System.nanoTime();
+        String token = session.getSessionToken();
+        String response;
+        try {
+          response = FlightService.execute(engine, session, command);
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+          response = FlightServer.FAILED;
+        }
+        commandTime.record(System.nanoTime() - start);
+        respond(FlightServer.frame(session, token, response));
+        if (response.equals(FlightServer.GOODBYE)) {
+          synchronized (this) {
+            quit = true;
+            commands.clear();
+            draining = false;
+          }
+          break;
+        }
+      }
+      changed.add(this);
+      selector.wakeup();
+    }
+
+    /**
+     * Queues a response and has the selector start writing it.
+     */
+    void respond(String framed) {
+      out.add(ByteBuffer.wrap(framed.getBytes(StandardCharsets.UTF_8)));
+      changed.add(this);
+      selector.wakeup();
+    }
+  }
+
+  public NioFlightServer(FlightEngine engine, int port, int maxSessions, int workerThreads,
+      int maxPipelined) throws IOException {
+    this.engine = engine;
+    this.maxSessions = maxSessions;
+    this.maxPipelined = maxPipelined;
+    this.selector = Selector.open();
+    this.serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(port), maxSessions);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    // At most one drain task per client is ever queued
+    this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(maxSessions), r -> {
+          Thread t = new Thread(r, "flight-worker");
+          t.setDaemon(true);
+          return t;
+        });
+  }
+
+  /**
+   * Returns a server on the given port with the limits from system properties.
+   */
+  public static NioFlightServer withSystemProperties(FlightEngine engine, int port)
+      throws IOException {
+    return new NioFlightServer(engine, port,
+        Integer.getInteger(FlightServer.MAX_SESSIONS_PROPERTY, FlightServer.DEFAULT_MAX_SESSIONS),
+        Integer.getInteger(WORKERS_PROPERTY, FlightServer.DEFAULT_MAX_IN_FLIGHT),
+        Integer.getInteger(MAX_PIPELINED_PROPERTY, DEFAULT_MAX_PIPELINED));
+  }
+
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+  }
+
+  /**
+   * Runs the selector loop until the server is closed, then closes every connection.
+   */
+  public void serve() throws IOException {
+    try {
+      select();
+    } finally {
+      workers.shutdownNow();
+      for (SelectionKey key : selector.keys()) {
+        key.channel().close();
+      }
+      selector.close();
+    }
+  }
+
+  private void select() throws IOException {
+    while (running) {
+      selector.select();
+      Client client;
+      while ((client = changed.poll()) != null) {
+        resume(client);
+      }
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        try {
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          if (key.isReadable()) {
+            read((Client) key.attachment());
+          }
+          if (key.isValid() && key.isWritable()) {
+            write((Client) key.attachment());
+          }
+        } catch (IOException | CancelledKeyException e) {
+          disconnect((Client) key.attachment());
+        }
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel;
+    while ((channel = serverChannel.accept()) != null) {
+      if (activeSessions.get() >= maxSessions) {
+        rejectedSessions.incrementAndGet();
+        try (SocketChannel rejected = channel) {
+          rejected.write(ByteBuffer.wrap((FlightServer.BUSY + "\n").getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+          // The client is being turned away anyway
+        }
+        continue;
+      }
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      key.attach(new Client(channel, key));
+      activeSessions.incrementAndGet();
+    }
+  }
+
+  /**
+   * Reads what the client sent and queues the complete command lines in it.
+   */
+  private void read(Client client) throws IOException {
+    if (client.channel.read(client.in) < 0) {
+      disconnect(client);
+      return;
+    }
+    resume(client);
+  }
+
+  /**
+   * Queues the command lines the client has room for, then updates what to wait for.
+   */
+  private void resume(Client client) {
+    if (queueLines(client)) {
+      updateInterest(client);
+    }
+  }
+
+  /**
+   * Queues complete command lines from the client's input until {@code maxPipelined} commands are
+   * waiting. Lines beyond that stay in the buffer until some of the waiting commands finish.
+   *
+   * @return false if the client was disconnected for sending a line longer than the buffer
+   */
+  private boolean queueLines(Client client) {
+    if (!client.key.isValid()) {
+      return false;
+    }
+    int waiting;
+    synchronized (client) {
+      waiting = client.commands.size();
+    }
+    ByteBuffer in = client.in;
+    in.flip();
+    int lineStart = 0;
+    for (int i = 0; i < in.limit() && waiting < maxPipelined; i++) {
+      if (in.get(i) == '\n') {
+        int end = i > lineStart && in.get(i - 1) == '\r' ? i - 1 : i;
+        String command = new String(in.array(), in.arrayOffset() + lineStart, end - lineStart,
+            StandardCharsets.UTF_8);
+        submit(client, command);
+        waiting++;
+        lineStart = i + 1;
+      }
+    }
+    in.position(lineStart);
+    in.compact();
+    if (!in.hasRemaining() && lineStart == 0 && waiting < maxPipelined) {
+      // A line longer than the buffer is not a command
+      disconnect(client);
+      return false;
+    }
+    return true;
+  }
+
+  private void submit(Client client, String command) {
+    boolean start;
+    synchronized (client) {
+      if (client.quit) {
+        return;
+      }
+      client.commands.add(command);
+      start = !client.draining;
+      client.draining = true;
+    }
+    if (start) {
+      try {
+        workers.execute(client::drain);
+      } catch (RejectedExecutionException e) {
+        rejectedCommands.incrementAndGet();
+        synchronized (client) {
+          for (int i = client.commands.size(); i > 0; i--) {
+            client.respond(FlightServer.BUSY + "\n");
+          }
+          client.commands.clear();
+          client.draining = false;
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes as many of the queued responses as the socket takes, in order.
+   */
+  private void write(Client client) throws IOException {
+    ByteBuffer[] pending = client.out.toArray(new ByteBuffer[0]);
+    if (pending.length > 0) {
+      client.channel.write(pending);
+    }
+    while (!client.out.isEmpty() && !client.out.peek().hasRemaining()) {
+      client.out.poll();
+    }
+    updateInterest(client);
+  }
+
+  /**
+   * Reads only while the client has room for more commands, writes only while there is output,
+   * and closes the connection once a client that quit has received everything.
+   */
+  private void updateInterest(Client client) {
+    if (!client.key.isValid()) {
+      return;
+    }
+    boolean quit;
+    int waiting;
+    synchronized (client) {
+      quit = client.quit;
+      waiting = client.commands.size();
+    }
+    boolean hasOutput = !client.out.isEmpty();
+    if (quit && !hasOutput) {
+      disconnect(client);
+      return;
+    }
+    int ops = 0;
+    if (!quit && waiting < maxPipelined) {
+      ops |= SelectionKey.OP_READ;
+    }
+    if (hasOutput) {
+      ops |= SelectionKey.OP_WRITE;
+    }
+    client.key.interestOps(ops);
+  }
+
+  private void disconnect(Client client) {
+    if (client == null || !client.key.isValid()) {
+      return;
+    }
+    client.key.cancel();
+    activeSessions.decrementAndGet();
+    boolean idle;
+    synchronized (client) {
+      client.quit = true;
+      client.commands.clear();
+      idle = !client.draining;
+    }
+    if (idle) {
+      // Otherwise the running drain resets it once it stops
+      client.session.reset();
+    }
+    try {
+      client.channel.close();
+    } catch (IOException e) {
+      // Already gone
+    }
+  }
+
+  /**
+   * Stops the selector loop, which then closes every connection.
+   */
+  @Override
+  public void close() {
+    running = false;
+    selector.wakeup();
+  }
+
+  public int activeSessions() {
+    return activeSessions.get();
+  }
+
+  public long rejectedSessions() {
+    return rejectedSessions.get();
+  }
+
+  public long rejectedCommands() {
+    return rejectedCommands.get();
+  }
+
+  /**
+   * Time workers spent running commands.
+   */
+  public LatencyStats commandTime() {
+    return commandTime;
+  }
+
+  @Override
+  public String toString() {
+    return "sessions=" + activeSessions() + " rejected=" + rejectedSessions() + " busy commands="
+        + rejectedCommands() + " queued=" + workers.getQueue().size() + ", command: " + commandTime;
+  }
+}
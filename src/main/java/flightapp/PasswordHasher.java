@@ -0,0 +1,188 @@
+package flightapp;
+
+import java.security.*;
+import java.security.spec.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.crypto.*;
+import javax.crypto.spec.*;
+
+/**
+ * Computes password hashes on a dedicated pool of worker threads.
+ *
+ * PBKDF2 is deliberately expensive, so running it on every session thread lets a burst of logins
+ * occupy far more threads than there are cores. Here at most {@code threads} hashes run at once,
+ * up to {@code queueCapacity} more wait in line, and callers beyond that block in
+ * {@link #hash(String, byte[], Params)} until a slot frees up.
+ *
+ * Callers should not hold a database transaction open while they wait for a hash.
+ */
+public class PasswordHasher {
+  static final int KEY_LENGTH = 128;
+
+  // System properties that choose the parameters for newly computed hashes
+  public static final String ALGORITHM_PROPERTY = "flightapp.hash.algorithm";
+  public static final String ITERATIONS_PROPERTY = "flightapp.hash.iterations";
+
+  /**
+   * The algorithm and iteration count a hash was computed with. They are stored next to every
+   * user's hash, so the defaults for new hashes can change without breaking existing logins.
+   */
+  public static final class Params {
+    // What every hash was computed with before parameters were stored per user
+    public static final Params LEGACY = new Params("PBKDF2WithHmacSHA1", 65536);
+
+    public final String algorithm;
+    public final int iterations;
+
+    public Params(String algorithm, int iterations) {
+      this.algorithm = algorithm;
+      this.iterations = iterations;
+    }
+
+    /**
+     * Returns the parameters set through system properties, falling back to {@link #LEGACY}.
+     */
+    public static Params fromSystemProperties() {
+      return new Params(System.getProperty(ALGORITHM_PROPERTY, LEGACY.algorithm),
+          Integer.getInteger(ITERATIONS_PROPERTY, LEGACY.iterations));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Params)) {
+        return false;
+      }
+      Params other = (Params) o;
+      return algorithm.equals(other.algorithm) && iterations == other.iterations;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(algorithm, iterations);
+    }
+
+    @Override
+    public String toString() {
+      return algorithm + "/" + iterations;
+    }
+  }
+
+  private final ThreadPoolExecutor pool;
+
+  // Admits at most threads + queueCapacity hashes into the pool at a time
+  private final Semaphore admission;
+
+  // Parameters for newly computed hashes
+  private final Params current;
+
+  // Time spent waiting for admission and in the pool's queue, and time spent hashing
+  private final LatencyStats queueWait = new LatencyStats();
+  private final LatencyStats hashTime = new LatencyStats();
+
+  public PasswordHasher(int threads, int queueCapacity, Params current) {
+    this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<>(queueCapacity), r -> {
+          Thread t = new Thread(r, "password-hasher");
+          t.setDaemon(true);
+          return t;
+        });
+    this.admission = new Semaphore(threads + queueCapacity);
+    this.current = current;
+  }
+
+  /**
+   * Returns a hasher with one thread per core, room for four queued hashes per thread, and the
+   * hash parameters from system properties.
+   */
+  public static PasswordHasher forAvailableProcessors() {
+    int cores = Runtime.getRuntime().availableProcessors();
+    return new PasswordHasher(cores, 4 * cores, Params.fromSystemProperties());
+  }
+
+  /**
+   * Parameters that new hashes should be computed with.
+   */
+  public Params current() {
+    return current;
+  }
+
+  /**
+   * Hashes the password with the current parameters.
+   */
+  public byte[] hash(String password, byte[] salt) {
+    return hash(password, salt, current);
+  }
+
+  /**
+   * Hashes the password with the given salt and parameters, waiting for a worker if all of them
+   * are busy. Emits a {@link FlightEvents.PasswordHash} and records the hash in the {@link Trace}
+   * on the calling thread.
+   */
+  public byte[] hash(String password, byte[] salt, Params params) {
+    FlightEvents.PasswordHash event = new FlightEvents.PasswordHash();
+    event.begin();
+    long submitted = System.nanoTime();
+    long[] took = new long[1];
+    admission.acquireUninterruptibly();
+    try {
+      Future<byte[]> result = pool.submit(() -> {
+        long started = System.nanoTime();
+        queueWait.record(started - submitted);
+        try {
+          return compute(password, salt, params);
+        } finally {
+          took[0] = System.nanoTime() - started;
+          hashTime.record(took[0]);
+        }
+      });
+      byte[] hash = result.get();
+      Trace.hash(params.algorithm, submitted, took[0]);
+      if (event.shouldCommit()) {
+        event.algorithm = params.algorithm;
+        event.iterations = params.iterations;
+        event.hashTime = took[0];
+        event.commit();
+      }
+      return hash;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while hashing password", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      admission.release();
+    }
+  }
+
+  private static byte[] compute(String password, byte[] salt, Params params) {
+    KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, params.iterations, KEY_LENGTH);
+    try {
+      SecretKeyFactory factory = SecretKeyFactory.getInstance(params.algorithm);
+      return factory.generateSecret(spec).getEncoded();
+    } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Number of hashes waiting for a worker thread, counting both those queued in the pool and the
+   * callers blocked until the queue has room for them.
+   */
+  public int queueDepth() {
+    return pool.getQueue().size() + admission.getQueueLength();
+  }
+
+  public LatencyStats queueWait() {
+    return queueWait;
+  }
+
+  public LatencyStats hashTime() {
+    return hashTime;
+  }
+
+  @Override
+  public String toString() {
+    return "queue depth=" + queueDepth() + ", queue wait: " + queueWait + ", hash: " + hashTime;
+  }
+}
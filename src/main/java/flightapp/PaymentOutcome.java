@@ -0,0 +1,33 @@
+package flightapp;
+
+/**
+ * Result of paying for a reservation.
+ *
+ * @param username the user the reservation was looked up under
+ * @param balance  the balance left after paying, or the balance that fell short of the cost
+ * @param cost     the reservation's price, if it was found
+ */
+public record PaymentOutcome(Status status, int reservationId, String username, int balance,
+    int cost) implements FlightResult {
+  public enum Status { PAID, NOT_LOGGED_IN, NOT_FOUND, INSUFFICIENT_FUNDS, FAILED }
+
+  public static PaymentOutcome of(Status status, int reservationId, String username) {
+    return new PaymentOutcome(status, reservationId, username, 0, 0);
+  }
+
+  @Override
+  public String render() {
+    switch (status) {
+      case PAID:
+        return "Paid reservation: " + reservationId + " remaining balance: " + balance + "\n";
+      case NOT_LOGGED_IN:
+        return "Cannot pay, not logged in\n";
+      case NOT_FOUND:
+        return "Cannot find unpaid reservation " + reservationId + " under user: " + username + "\n";
+      case INSUFFICIENT_FUNDS:
+        return "User has only " + balance + " in account but itinerary costs " + cost + "\n";
+      default:
+        return "Failed to pay for reservation " + reservationId + "\n";
+    }
+  }
+}
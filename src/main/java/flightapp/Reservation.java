@@ -0,0 +1,21 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * One of a user's live reservations.
+ */
+public record Reservation(int id, boolean paid, List<Flight> flights) {
+  public Reservation {
+    flights = List.copyOf(flights);
+  }
+
+  public String render() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Reservation ").append(id).append(" paid: ").append(paid).append(":\n");
+    for (Flight flight : flights) {
+      sb.append(flight).append("\n");
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,81 @@
+package flightapp;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Per-user cache of the result of the reservations command.
+ *
+ * Entries are dropped by {@link #invalidate(String)} whenever that user books, pays or cancels
+ * through any session in this process. A reader takes a {@link #stamp(String)} before querying
+ * the database and passes it back to {@link #put(String, long, ReservationsResult)}; the put is ignored if
+ * the user was invalidated in between, so a slow reader can never cache a listing older than a
+ * write it raced with. Writes made by other processes are not seen until the entry is
+ * invalidated or evicted.
+ */
+class ReservationCache {
+  // Most users whose listings are kept; the least recently used are evicted first
+  static final int MAX_USERS = 10000;
+
+  // Source of stamps; every invalidation moves it forward
+  private final AtomicLong clock = new AtomicLong();
+
+  private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_USERS;
+    }
+  };
+
+  private static class Entry {
+    final long stamp;
+    final ReservationsResult listing; // null once invalidated
+
+    Entry(long stamp, ReservationsResult listing) {
+      this.stamp = stamp;
+      this.listing = listing;
+    }
+  }
+
+  /**
+   * Returns the cached listing for the user, or null if there is none.
+   */
+  synchronized ReservationsResult get(String username) {
+    Entry e = entries.get(username);
+    return e == null ? null : e.listing;
+  }
+
+  /**
+   * Returns the stamp to pass to {@link #put} after reading the user's reservations.
+   */
+  synchronized long stamp(String username) {
+    Entry e = entries.get(username);
+    // An evicted user may have been invalidated at any point up to now
+    return e == null ? clock.get() : e.stamp;
+  }
+
+  /**
+   * Caches a listing read after {@code stamp} was taken, unless the user has been invalidated
+   * since.
+   */
+  synchronized void put(String username, long stamp, ReservationsResult listing) {
+    if (stamp(username) == stamp) {
+      entries.put(username, new Entry(stamp, listing));
+    }
+  }
+
+  /**
+   * Drops the user's listing after one of their reservations changed.
+   */
+  synchronized void invalidate(String username) {
+    entries.put(username, new Entry(clock.incrementAndGet(), null));
+  }
+
+  /**
+   * Drops every listing, e.g. after the tables were cleared.
+   */
+  synchronized void clear() {
+    clock.incrementAndGet();
+    entries.clear();
+  }
+}
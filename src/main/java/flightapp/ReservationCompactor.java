@@ -0,0 +1,106 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.concurrent.*;
+
+/**
+ * Background task that moves old cancelled reservations out of Reservations.
+ *
+ * Cancelling a reservation only tombstones its row (cancelled = 1), so cancelled rows pile up in
+ * Reservations over time. Every {@code intervalSeconds} the compactor checks whether the
+ * application has been quiet, meaning no booking, payment or cancellation for at least
+ * {@code quietMillis}. If it has, the compactor moves tombstones older than
+ * {@code minAgeSeconds} into ReservationsArchive, {@code batchSize} rows per statement. It stops
+ * early when activity resumes, so it never competes with customers for locks on Reservations.
+ */
+public class ReservationCompactor implements Runnable {
+  // Default tuning: archive tombstones older than an hour, 500 rows at a time, once a minute
+  public static final int DEFAULT_MIN_AGE_SECONDS = 3600;
+  public static final int DEFAULT_BATCH_SIZE = 500;
+  public static final int DEFAULT_INTERVAL_SECONDS = 60;
+  public static final int DEFAULT_QUIET_MILLIS = 5000;
+
+  // Time of the last reservation write made through any engine in this process
+  private static volatile long lastActivityMillis = 0;
+
+  // Moves one batch of old tombstones into the archive in a single atomic statement
+  private static final String ARCHIVE_BATCH = "DELETE TOP (?) FROM Reservations OUTPUT DELETED.re_id, DELETED.fid_one, DELETED.fid_two, " +
+                                              "DELETED.total_price, DELETED.username, DELETED.pay, DELETED.cancelled_at INTO ReservationsArchive " +
+                                              "(re_id, fid_one, fid_two, total_price, username, pay, cancelled_at) " +
+                                              "WHERE cancelled = 1 AND cancelled_at < DATEADD(SECOND, -?, SYSUTCDATETIME());";
+
+  private final Connection conn;
+  private final PreparedStatement archiveBatchStatement;
+  private final int minAgeSeconds;
+  private final int batchSize;
+  private final int quietMillis;
+
+  public ReservationCompactor(Connection conn, int minAgeSeconds, int batchSize, int quietMillis)
+      throws SQLException {
+    this.conn = conn;
+    this.archiveBatchStatement = conn.prepareStatement(ARCHIVE_BATCH);
+    this.minAgeSeconds = minAgeSeconds;
+    this.batchSize = batchSize;
+    this.quietMillis = quietMillis;
+  }
+
+  /**
+   * Starts a compactor with the default settings on a daemon thread.
+   *
+   * @param conn dedicated connection for the compactor, in auto-commit mode
+   * @return the scheduler running the compactor; shut it down to stop compaction
+   */
+  public static ScheduledExecutorService start(Connection conn) throws SQLException {
+    ReservationCompactor compactor = new ReservationCompactor(conn, DEFAULT_MIN_AGE_SECONDS,
+        DEFAULT_BATCH_SIZE, DEFAULT_QUIET_MILLIS);
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "reservation-compactor");
+      t.setDaemon(true);
+      return t;
+    });
+    scheduler.scheduleWithFixedDelay(compactor, DEFAULT_INTERVAL_SECONDS,
+        DEFAULT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    return scheduler;
+  }
+
+  /**
+   * Notes that a reservation was just written, postponing compaction.
+   */
+  static void recordActivity() {
+    lastActivityMillis = System.currentTimeMillis();
+  }
+
+  private boolean isQuiet() {
+    return System.currentTimeMillis() - lastActivityMillis >= quietMillis;
+  }
+
+  /**
+   * Archives batches of old tombstones for as long as the application stays quiet.
+   *
+   * @return number of reservations archived
+   */
+  public int compact() throws SQLException {
+    int archived = 0;
+    while (isQuiet()) {
+      archiveBatchStatement.clearParameters();
+      archiveBatchStatement.setInt(1, batchSize);
+      archiveBatchStatement.setInt(2, minAgeSeconds);
+      int moved = archiveBatchStatement.executeUpdate();
+      archived += moved;
+      if (moved < batchSize) {
+        break;
+      }
+    }
+    return archived;
+  }
+
+  @Override
+  public void run() {
+    try {
+      compact();
+    } catch (SQLException e) {
+      // A failed batch rolls back on its own; try again on the next run
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * A user's live reservations in ID order, or why they could not be listed.
+ */
+public record ReservationsResult(Status status, List<Reservation> reservations)
+    implements FlightResult {
+  public enum Status { OK, NOT_LOGGED_IN, FAILED }
+
+  public static final ReservationsResult NOT_LOGGED_IN =
+      new ReservationsResult(Status.NOT_LOGGED_IN, List.of());
+  public static final ReservationsResult FAILED = new ReservationsResult(Status.FAILED, List.of());
+
+  public ReservationsResult {
+    reservations = List.copyOf(reservations);
+  }
+
+  public ReservationsResult(List<Reservation> reservations) {
+    this(Status.OK, reservations);
+  }
+
+  @Override
+  public String render() {
+    switch (status) {
+      case NOT_LOGGED_IN:
+        return "Cannot view reservations, not logged in\n";
+      case FAILED:
+        return "Failed to retrieve reservations\n";
+      default:
+        if (reservations.isEmpty()) {
+          return "No reservations found\n";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Reservation reservation : reservations) {
+          sb.append(reservation.render());
+        }
+        return sb.toString();
+    }
+  }
+}
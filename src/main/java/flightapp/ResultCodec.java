@@ -0,0 +1,263 @@
+package flightapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compact binary form of the {@link FlightResult} records, for clients that move too many results
+ * to afford rendering and parsing the text protocol.
+ *
+ * A message is a tag byte naming the record type, the status ordinal as a byte, and then the
+ * record's fields in declaration order. Integers are written as zig-zag varints, so the small IDs,
+ * durations and prices that make up most of a result take one or two bytes. Lists are a varint
+ * count followed by their elements. Strings are deduplicated within a message: a string seen
+ * before is written as its 1-based position among the distinct strings so far, and a new one as 0
+ * followed by its UTF-8 length and bytes. A search result names the same handful of cities and
+ * carriers many times over, so most of its strings shrink to a byte.
+ *
+ * Both ends must agree on the record definitions; the format carries no version.
+ */
+public final class ResultCodec {
+  private static final int SEARCH = 1;
+  private static final int RESERVATIONS = 2;
+  private static final int BOOKING = 3;
+  private static final int PAYMENT = 4;
+  private static final int CANCEL = 5;
+
+  private ResultCodec() {
+  }
+
+  public static byte[] encode(FlightResult result) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      write(result, bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // a byte array stream cannot fail
+    }
+    return bytes.toByteArray();
+  }
+
+  public static FlightResult decode(byte[] message) {
+    try {
+      return read(new ByteArrayInputStream(message));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed result", e);
+    }
+  }
+
+  /**
+   * Writes one result to the stream; several can be written back to back and read with
+   * {@link #read(InputStream)}.
+   */
+  public static void write(FlightResult result, OutputStream out) throws IOException {
+    new Writer(out).result(result);
+  }
+
+  /**
+   * Reads the next result from the stream.
+   *
+   * @throws EOFException if the stream ends before a whole result was read
+   */
+  public static FlightResult read(InputStream in) throws IOException {
+    return new Reader(in).result();
+  }
+
+  private static class Writer {
+    private final OutputStream out;
+    private final Map<String, Integer> seen = new HashMap<>();
+
+    Writer(OutputStream out) {
+      this.out = out;
+    }
+
+    void result(FlightResult result) throws IOException {
+      switch (result) {
+        case SearchResult r -> {
+          header(SEARCH, r.failed() ? 1 : 0);
+          varint(r.itineraries().size());
+          for (Itinerary itinerary : r.itineraries()) {
+            number(itinerary.number());
+            number(itinerary.totalTime());
+            flights(itinerary.flights());
+          }
+        }
+        case ReservationsResult r -> {
+          header(RESERVATIONS, r.status().ordinal());
+          varint(r.reservations().size());
+          for (Reservation reservation : r.reservations()) {
+            number(reservation.id());
+            out.write(reservation.paid() ? 1 : 0);
+            flights(reservation.flights());
+          }
+        }
+        case BookingOutcome r -> {
+          header(BOOKING, r.status().ordinal());
+          number(r.itineraryId());
+          number(r.reservationId());
+        }
+        case PaymentOutcome r -> {
+          header(PAYMENT, r.status().ordinal());
+          number(r.reservationId());
+          string(r.username());
+          number(r.balance());
+          number(r.cost());
+        }
+        case CancelOutcome r -> {
+          header(CANCEL, r.status().ordinal());
+          number(r.reservationId());
+        }
+      }
+    }
+
+    private void header(int tag, int status) throws IOException {
+      out.write(tag);
+      out.write(status);
+    }
+
+    private void flights(List<Flight> flights) throws IOException {
+      varint(flights.size());
+      for (Flight f : flights) {
+        number(f.fid());
+        number(f.dayOfMonth());
+        string(f.carrierId());
+        string(f.flightNum());
+        string(f.originCity());
+        string(f.destCity());
+        number(f.time());
+        number(f.capacity());
+        number(f.price());
+      }
+    }
+
+    private void number(int value) throws IOException {
+      varint((value << 1) ^ (value >> 31));
+    }
+
+    private void varint(int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+        out.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+
+    // A null string, e.g. the username of a payment made while logged out, is the empty string
+    private void string(String value) throws IOException {
+      if (value == null) {
+        value = "";
+      }
+      Integer index = seen.get(value);
+      if (index != null) {
+        varint(index);
+        return;
+      }
+      seen.put(value, seen.size() + 1);
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      varint(0);
+      varint(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static class Reader {
+    private final InputStream in;
+    private final List<String> seen = new ArrayList<>();
+
+    Reader(InputStream in) {
+      this.in = in;
+    }
+
+    FlightResult result() throws IOException {
+      int tag = read();
+      int status = read();
+      switch (tag) {
+        case SEARCH: {
+          int count = varint();
+          List<Itinerary> itineraries = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            itineraries.add(new Itinerary(number(), number(), flights()));
+          }
+          return new SearchResult(status != 0, itineraries);
+        }
+        case RESERVATIONS: {
+          int count = varint();
+          List<Reservation> reservations = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) {
+            reservations.add(new Reservation(number(), read() != 0, flights()));
+          }
+          return new ReservationsResult(status(ReservationsResult.Status.values(), status), reservations);
+        }
+        case BOOKING:
+          return new BookingOutcome(status(BookingOutcome.Status.values(), status), number(), number());
+        case PAYMENT:
+          return new PaymentOutcome(status(PaymentOutcome.Status.values(), status), number(), string(),
+              number(), number());
+        case CANCEL:
+          return new CancelOutcome(status(CancelOutcome.Status.values(), status), number());
+        default:
+          throw new IOException("Unknown result type " + tag);
+      }
+    }
+
+    private List<Flight> flights() throws IOException {
+      int count = varint();
+      List<Flight> flights = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        flights.add(new Flight(number(), number(), string(), string(), string(), string(), number(),
+            number(), number()));
+      }
+      return flights;
+    }
+
+    private static <E> E status(E[] values, int ordinal) throws IOException {
+      if (ordinal >= values.length) {
+        throw new IOException("Unknown status " + ordinal);
+      }
+      return values[ordinal];
+    }
+
+    private int read() throws IOException {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      return b;
+    }
+
+    private int number() throws IOException {
+      int value = varint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int varint() throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 35; shift += 7) {
+        int b = read();
+        value |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("Varint too long");
+    }
+
+    private String string() throws IOException {
+      int index = varint();
+      if (index > 0) {
+        if (index > seen.size()) {
+          throw new IOException("Unknown string " + index);
+        }
+        return seen.get(index - 1);
+      }
+      int length = varint();
+      byte[] bytes = in.readNBytes(length);
+      if (bytes.length < length) {
+        throw new EOFException();
+      }
+      String value = new String(bytes, StandardCharsets.UTF_8);
+      seen.add(value);
+      return value;
+    }
+  }
+}
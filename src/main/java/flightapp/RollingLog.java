@@ -0,0 +1,128 @@
+package flightapp;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * A log file written by a background thread and rolled over when it grows too big, so whoever
+ * adds an entry never waits for the disk.
+ *
+ * Entries are formatted on the writer thread. If it falls too far behind, entries are dropped and
+ * their number is written instead. When the file reaches {@code maxBytes}, {@code slow.log}
+ * becomes {@code slow.log.1}, {@code slow.log.1} becomes {@code slow.log.2} and so on, and the
+ * oldest is deleted.
+ */
+final class RollingLog<E> {
+  // Entries waiting for the writer; more are dropped
+  static final int QUEUE_CAPACITY = 10000;
+
+  private final Path file;
+  private final long maxBytes;
+  private final int files;
+  private final String threadName;
+  private final Function<E, String> format;
+
+  private final BlockingQueue<E> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicBoolean writerStarted = new AtomicBoolean();
+
+  // Used only by the writer thread
+  private Writer out;
+  private long written;
+
+  /**
+   * @param files      number of files kept, counting the one being written
+   * @param threadName name of the writer thread, started with the first entry
+   * @param format     turns an entry into the text written for it, ending in a newline
+   */
+  RollingLog(Path file, long maxBytes, int files, String threadName, Function<E, String> format) {
+    this.file = file;
+    this.maxBytes = maxBytes;
+    this.files = Math.max(files, 1);
+    this.threadName = threadName;
+    this.format = format;
+  }
+
+  /**
+   * Queues an entry for the writer, or drops it if the queue is full.
+   */
+  void add(E entry) {
+    if (writerStarted.compareAndSet(false, true)) {
+      Thread writer = new Thread(this::writeEntries, threadName);
+      writer.setDaemon(true);
+      writer.start();
+    }
+    if (!queue.offer(entry)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void writeEntries() {
+    while (true) {
+      E entry;
+      try {
+        entry = queue.take();
+      } catch (InterruptedException e) {
+        return;
+      }
+      try {
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+          write(Instant.now() + " dropped " + lost + " entries, the log could not keep up\n");
+        }
+        write(format.apply(entry));
+        if (queue.isEmpty()) {
+          out.flush();
+        }
+      } catch (IOException | RuntimeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void write(String text) throws IOException {
+    if (out == null) {
+      open();
+    }
+    if (written > 0 && written >= maxBytes) {
+      out.close();
+      roll();
+      open();
+    }
+    out.write(text);
+    written += text.getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  private void open() throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    written = Files.exists(file) ? Files.size(file) : 0;
+    out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.APPEND);
+  }
+
+  private void roll() throws IOException {
+    if (files == 1) {
+      Files.delete(file);
+      return;
+    }
+    Files.deleteIfExists(rolled(files - 1));
+    for (int i = files - 2; i >= 1; i--) {
+      if (Files.exists(rolled(i))) {
+        Files.move(rolled(i), rolled(i + 1));
+      }
+    }
+    Files.move(file, rolled(1));
+  }
+
+  private Path rolled(int i) {
+    return file.resolveSibling(file.getFileName() + "." + i);
+  }
+}
@@ -0,0 +1,33 @@
+package flightapp;
+
+import java.util.*;
+
+/**
+ * The itineraries a search found, shortest first, or a failed search.
+ */
+public record SearchResult(boolean failed, List<Itinerary> itineraries) implements FlightResult {
+  public static final SearchResult FAILED = new SearchResult(true, List.of());
+
+  public SearchResult {
+    itineraries = List.copyOf(itineraries);
+  }
+
+  public SearchResult(List<Itinerary> itineraries) {
+    this(false, itineraries);
+  }
+
+  @Override
+  public String render() {
+    if (failed) {
+      return "Failed to search\n";
+    }
+    if (itineraries.isEmpty()) {
+      return "No flights match your selection\n";
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Itinerary itinerary : itineraries) {
+      sb.append(itinerary.render());
+    }
+    return sb.toString();
+  }
+}
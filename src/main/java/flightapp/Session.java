@@ -0,0 +1,71 @@
+package flightapp;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * What one client has done so far: who is logged in and the itineraries from their last search.
+ *
+ * A session holds no connection or statement, so it costs a few fields and can be created for
+ * every client. The {@link FlightEngine} that runs its transactions is shared.
+ *
+ * Its fields are safe to read and write from several threads, so one user's independent commands
+ * (a search and a reservations listing, say) can run at the same time through {@link AsyncQuery}.
+ * Commands that depend on each other, like a search and the booking of one of its itineraries,
+ * still have to be run one after the other.
+ */
+public class Session {
+  // Saves a boolean value to express whether or not a user is logged in; true if logged in, false if not
+  volatile boolean logged_in = false;
+
+  // Saves the user's userID info as a string. The string is left as null until the user logs in
+  volatile String user_id = null;
+
+  // Token the user can later resume this login with. The string is left as null until the user logs in
+  volatile String session_token = null;
+
+  // When the user last booked, paid or cancelled, which keeps their reads on the primary for a while
+  volatile long last_write_millis = 0;
+
+  // Whether each response should end with the command's trace summary
+  volatile boolean tracing = false;
+
+  // Saves the user's itineraries
+  final Map<Integer, int[]> MapItineraries = new ConcurrentHashMap<Integer, int[]>();
+
+  public boolean isLoggedIn() {
+    return logged_in;
+  }
+
+  /**
+   * Whether responses end with a summary of where the command's time went; see {@link Trace}
+   */
+  public boolean isTracing() {
+    return tracing;
+  }
+
+  /**
+   * Get the lower-cased name of the logged in user, or null if not logged in
+   */
+  public String getUsername() {
+    return user_id;
+  }
+
+  /**
+   * Get the session token issued by the last successful login or resume, or null if not logged in
+   */
+  public String getSessionToken() {
+    return session_token;
+  }
+
+  /**
+   * Logs the user out and forgets their last search
+   */
+  public void reset() {
+    logged_in = false;
+    user_id = null;
+    session_token = null;
+    last_write_millis = 0;
+    MapItineraries.clear();
+  }
+}
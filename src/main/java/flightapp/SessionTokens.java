@@ -0,0 +1,162 @@
+package flightapp;
+
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.util.*;
+import javax.crypto.*;
+import javax.crypto.spec.*;
+
+/**
+ * Issues and checks the session tokens that let a client log back in without its password.
+ *
+ * A token is {@code base64(username:expiry:nonce).base64(mac)}, where the MAC is HMAC-SHA256 under
+ * a key that never leaves this process. Checking a token costs one HMAC instead of a full
+ * password hash. Issued tokens are also remembered by nonce, so a token stops working once it is
+ * revoked, expires, or is pushed out by the newest {@code maxTokens} tokens. The name as the user
+ * typed it at login is remembered with the nonce too, so resuming greets them the same way.
+ */
+public class SessionTokens {
+  public static final long DEFAULT_TTL_MILLIS = 30 * 60 * 1000;
+  public static final int DEFAULT_MAX_TOKENS = 100000;
+
+  private static final String MAC_ALGORITHM = "HmacSHA256";
+
+  private final SecretKeySpec key;
+  private final long ttlMillis;
+  private final SecureRandom random = new SecureRandom();
+
+  /**
+   * Who a live token was issued to.
+   *
+   * @param username    the lower-cased name sessions are keyed by
+   * @param displayName the name as typed at login
+   */
+  public record Login(String username, String displayName) {
+  }
+
+  private record Issued(long expiry, String displayName) {
+  }
+
+  // Live tokens by nonce, oldest first
+  private final LinkedHashMap<String, Issued> live;
+
+  public SessionTokens(long ttlMillis, int maxTokens) {
+    byte[] secret = new byte[32];
+    random.nextBytes(secret);
+    this.key = new SecretKeySpec(secret, MAC_ALGORITHM);
+    this.ttlMillis = ttlMillis;
+    this.live = new LinkedHashMap<String, Issued>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Issued> eldest) {
+        return size() > maxTokens;
+      }
+    };
+  }
+
+  /**
+   * Issues a new token for the user.
+   *
+   * @param username    the lower-cased name
+   * @param displayName the name as typed at login
+   */
+  public String issue(String username, String displayName) {
+    byte[] nonceBytes = new byte[16];
+    random.nextBytes(nonceBytes);
+    String nonce = Base64.getUrlEncoder().withoutPadding().encodeToString(nonceBytes);
+    long expiry = System.currentTimeMillis() + ttlMillis;
+    String payload = username + ":" + expiry + ":" + nonce;
+
+    synchronized (live) {
+      live.put(nonce, new Issued(expiry, displayName));
+    }
+    return encode(payload.getBytes(StandardCharsets.UTF_8)) + "." + encode(sign(payload));
+  }
+
+  /**
+   * Returns the user the token was issued to, or null if the token is forged, expired or revoked.
+   */
+  public Login verify(String token) {
+    Parsed parsed = parse(token);
+    if (parsed == null || parsed.expiry < System.currentTimeMillis()) {
+      return null;
+    }
+    Issued issued;
+    synchronized (live) {
+      issued = live.get(parsed.nonce);
+    }
+    if (issued == null || issued.expiry() != parsed.expiry) {
+      return null;
+    }
+    return new Login(parsed.username, issued.displayName());
+  }
+
+  /**
+   * Makes the token unusable from now on.
+   */
+  public void revoke(String token) {
+    Parsed parsed = parse(token);
+    if (parsed != null) {
+      synchronized (live) {
+        live.remove(parsed.nonce);
+      }
+    }
+  }
+
+  /**
+   * Revokes every token.
+   */
+  public void clear() {
+    synchronized (live) {
+      live.clear();
+    }
+  }
+
+  private static class Parsed {
+    String username;
+    long expiry;
+    String nonce;
+  }
+
+  /**
+   * Splits a well-formed, correctly signed token into its fields; returns null for anything else.
+   */
+  private Parsed parse(String token) {
+    int dot = token.indexOf('.');
+    if (dot < 0) {
+      return null;
+    }
+    try {
+      byte[] payloadBytes = Base64.getUrlDecoder().decode(token.substring(0, dot));
+      byte[] mac = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+      String payload = new String(payloadBytes, StandardCharsets.UTF_8);
+      if (!MessageDigest.isEqual(mac, sign(payload))) {
+        return null;
+      }
+      int nonceStart = payload.lastIndexOf(':');
+      int expiryStart = payload.lastIndexOf(':', nonceStart - 1);
+      Parsed parsed = new Parsed();
+      parsed.username = payload.substring(0, expiryStart);
+      parsed.expiry = Long.parseLong(payload.substring(expiryStart + 1, nonceStart));
+      parsed.nonce = payload.substring(nonceStart + 1);
+      return parsed;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      return null;
+    }
+  }
+
+  // A Mac is not thread-safe, so every call gets its own; making one costs far less than the
+  // password hash a token saves
+  private byte[] sign(String payload) {
+    try {
+      Mac mac = Mac.getInstance(MAC_ALGORITHM);
+      mac.init(key);
+      return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String encode(byte[] bytes) {
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+}
@@ -0,0 +1,175 @@
+package flightapp;
+
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Log of statements and operations that took longer than a threshold, with what they were run for.
+ *
+ * A statement entry names the operation that ran it, the statement, its bound parameters, how long
+ * it took (for a query, until its last row was read) and how many rows it read or changed. Byte
+ * array parameters, which is how password hashes and salts are bound, are logged only as their
+ * length. Optionally the entry is followed by the statement's plan from the server's plan cache:
+ * the last actual plan where the server keeps those, otherwise the cached estimated plan. Looking
+ * up plans needs the VIEW SERVER STATE permission.
+ *
+ * Entries are written to a {@link RollingLog}, so a command never waits for the log; the plans are
+ * looked up by its writer thread too.
+ *
+ * Configured by system properties; logging is off unless {@code flightapp.slowlog.threshold_ms}
+ * is set.
+ */
+final class SlowLog {
+  static final String THRESHOLD_PROPERTY = "flightapp.slowlog.threshold_ms";
+  static final String FILE_PROPERTY = "flightapp.slowlog.file";
+  static final String MAX_BYTES_PROPERTY = "flightapp.slowlog.max_bytes";
+  static final String FILES_PROPERTY = "flightapp.slowlog.files";
+  static final String PLANS_PROPERTY = "flightapp.slowlog.plans";
+
+  private static final String PLAN_LOOKUP =
+      "SELECT TOP (1) CAST(COALESCE(ps.query_plan, qp.query_plan) AS nvarchar(max)) AS query_plan "
+      + "FROM sys.dm_exec_query_stats AS qs CROSS APPLY sys.dm_exec_sql_text(qs.sql_handle) AS st "
+      + "OUTER APPLY sys.dm_exec_query_plan_stats(qs.plan_handle) AS ps "
+      + "OUTER APPLY sys.dm_exec_query_plan(qs.plan_handle) AS qp "
+      + "WHERE CHARINDEX(?, st.text) > 0 ORDER BY qs.last_execution_time DESC;";
+
+  private static final SlowLog INSTANCE = new SlowLog(
+      Long.getLong(THRESHOLD_PROPERTY, -1),
+      Paths.get(System.getProperty(FILE_PROPERTY, "slow.log")),
+      Long.getLong(MAX_BYTES_PROPERTY, 10 * 1024 * 1024),
+      Integer.getInteger(FILES_PROPERTY, 5),
+      Boolean.getBoolean(PLANS_PROPERTY));
+
+  /**
+   * A slow statement or operation, formatted by the writer.
+   *
+   * @param statement null for an operation entry
+   * @param rows      -1 if not known
+   * @param database  where to look up the plan, or null not to
+   */
+  private record Entry(Instant at, String operation, String statement, String sql, Object[] params,
+      long nanos, long rows, ConnectionPool.Config database) {
+  }
+
+  private final long thresholdNanos;
+  private final boolean plans;
+  private final RollingLog<Entry> log;
+
+  // Used only by the writer thread
+  private final Map<String, Connection> planConnections = new HashMap<>();
+
+  /**
+   * @param thresholdMillis entries are logged at or above this; negative turns the log off
+   * @param files           number of files kept, counting the one being written
+   */
+  SlowLog(long thresholdMillis, Path file, long maxBytes, int files, boolean plans) {
+    this.thresholdNanos = thresholdMillis < 0 ? -1 : thresholdMillis * 1000000;
+    this.plans = plans;
+    this.log = new RollingLog<>(file, maxBytes, files, "slow-log-writer", this::format);
+  }
+
+  /**
+   * The log configured by system properties.
+   */
+  static SlowLog get() {
+    return INSTANCE;
+  }
+
+  boolean enabled() {
+    return thresholdNanos >= 0;
+  }
+
+  boolean isSlow(long nanos) {
+    return enabled() && nanos >= thresholdNanos;
+  }
+
+  /**
+   * Logs a slow statement.
+   *
+   * @param params   the bound parameters, by index from 1; the array is kept, so it must not change
+   * @param database the database it ran on, to look up its plan
+   */
+  void statement(String operation, String statement, String sql, Object[] params, long nanos,
+      long rows, ConnectionPool.Config database) {
+    log.add(new Entry(Instant.now(), operation, statement, sql, params, nanos, rows,
+        plans ? database : null));
+  }
+
+  /**
+   * Logs a slow operation.
+   */
+  void operation(String operation, long nanos) {
+    log.add(new Entry(Instant.now(), operation, null, null, null, nanos, -1, null));
+  }
+
+  private String format(Entry e) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(e.at()).append(" operation=").append(e.operation());
+    if (e.statement() != null) {
+      sb.append(" statement=").append(e.statement());
+    }
+    sb.append(String.format(" elapsed=%.3fms", e.nanos() / 1e6));
+    if (e.rows() >= 0) {
+      sb.append(" rows=").append(e.rows());
+    }
+    if (e.params() != null) {
+      sb.append(" params=[");
+      for (int i = 1; i < e.params().length; i++) {
+        sb.append(i > 1 ? ", " : "").append(redact(e.params()[i]));
+      }
+      sb.append("]");
+    }
+    sb.append("\n");
+    if (e.database() != null) {
+      sb.append("  plan: ").append(plan(e.database(), e.sql())).append("\n");
+    }
+    return sb.toString();
+  }
+
+  private static String redact(Object value) {
+    if (value == null) {
+      return "null";
+    }
+    if (value instanceof byte[] bytes) {
+      return "<" + bytes.length + " bytes>";
+    }
+    if (value instanceof String s) {
+      return "'" + s.replace("'", "''") + "'";
+    }
+    return value.toString();
+  }
+
+  /**
+   * Looks up the plan of the statement in the server's plan cache.
+   */
+  private String plan(ConnectionPool.Config database, String sql) {
+    // The driver sends the statement with its ? markers named @P0, @P1, ...
+    StringBuilder sent = new StringBuilder();
+    int marker = 0;
+    for (char c : sql.toCharArray()) {
+      if (c == '?') {
+        sent.append("@P").append(marker++);
+      } else {
+        sent.append(c);
+      }
+    }
+    try {
+      Connection conn = planConnections.get(database.url);
+      if (conn == null || conn.isClosed()) {
+        conn = database.openConnection();
+        planConnections.put(database.url, conn);
+      }
+      try (PreparedStatement lookup = conn.prepareStatement(PLAN_LOOKUP)) {
+        lookup.setString(1, sent.toString());
+        try (ResultSet rs = lookup.executeQuery()) {
+          String plan = rs.next() ? rs.getString("query_plan") : null;
+          return plan == null ? "not in the plan cache" : plan;
+        }
+      }
+    } catch (SQLException e) {
+      return "unavailable: " + e.getMessage();
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * Prepared statements of one pooled connection, keyed by SQL text.
+ *
+ * A statement is prepared the first time a command on the connection asks for it and reused by
+ * every later command on the same connection. At most {@code maxSize} statements stay cached; the
+ * least recently used one is dropped to make room for a new one. A command may still be holding a
+ * dropped statement, so it is only closed by {@link #closeEvicted()} once the connection goes back
+ * to the pool.
+ *
+ * Only the thread that borrowed the connection uses its cache. The counters are shared by every
+ * connection of a pool.
+ */
+class StatementCache {
+  /**
+   * Hit, miss and eviction counts across all the caches of a pool.
+   */
+  static class Stats {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public long hits() {
+      return hits.get();
+    }
+
+    public long misses() {
+      return misses.get();
+    }
+
+    public long evictions() {
+      return evictions.get();
+    }
+
+    /**
+     * Fraction of lookups that found the statement already prepared.
+     */
+    public double hitRate() {
+      long hits = hits();
+      long total = hits + misses();
+      return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("hits=%d misses=%d evictions=%d hit rate=%.3f", hits(), misses(),
+          evictions(), hitRate());
+    }
+  }
+
+  private final Connection conn;
+  private final Stats stats;
+  private final BiFunction<String, PreparedStatement, PreparedStatement> wrapper;
+  private final LinkedHashMap<String, PreparedStatement> statements;
+  // Dropped from the cache since the connection was borrowed, still open
+  private final List<PreparedStatement> evicted = new ArrayList<>();
+
+  /**
+   * @param wrapper applied to the SQL and every newly prepared statement; the cache holds and hands
+   *                out what it returns
+   */
+  StatementCache(Connection conn, int maxSize, Stats stats,
+      BiFunction<String, PreparedStatement, PreparedStatement> wrapper) {
+    this.conn = conn;
+    this.stats = stats;
+    this.wrapper = wrapper;
+    this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+        if (size() <= maxSize) {
+          return false;
+        }
+        stats.evictions.incrementAndGet();
+        evicted.add(eldest.getValue());
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Returns the statement for the given SQL, preparing it on the connection if it is not cached.
+   */
+  PreparedStatement get(String sql) throws SQLException {
+    PreparedStatement statement = statements.get(sql);
+    if (statement != null) {
+      stats.hits.incrementAndGet();
+      return statement;
+    }
+    stats.misses.incrementAndGet();
+    statement = wrapper.apply(sql, conn.prepareStatement(sql));
+    statements.put(sql, statement);
+    return statement;
+  }
+
+  /**
+   * Closes the statements evicted since the last call; the connection's borrower must be done with
+   * them.
+   */
+  void closeEvicted() {
+    for (PreparedStatement statement : evicted) {
+      try {
+        statement.close();
+      } catch (SQLException e) {
+        e.printStackTrace();
+      }
+    }
+    evicted.clear();
+  }
+
+  int size() {
+    return statements.size();
+  }
+}
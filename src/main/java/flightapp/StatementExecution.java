@@ -0,0 +1,158 @@
+package flightapp;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * One execution of a pooled statement, followed until it is done: for an update or batch when the
+ * server answers, for a query when its last row is read, its result set closed, the statement run
+ * again or the connection returned to the pool. Then it is reported to whichever of the
+ * {@link FlightEvents.Statement} event and the {@link SlowLog} want it.
+ *
+ * A query's time runs to the last row read before another statement ran on the same thread, on
+ * any connection. Rows read after that are still counted, but the time spent on the other
+ * statements in between is theirs.
+ */
+final class StatementExecution {
+  // Queries on this thread whose clocks still move with every row read, or null if none yet
+  private static final ThreadLocal<List<StatementExecution>> TIMED = new ThreadLocal<>();
+
+  private final String operation;
+  private final String name;
+  private final String sql;
+  private final Object[] params;
+  private final ConnectionPool.Config database;
+  private final FlightEvents.Statement event;
+  private final long start;
+  private long end;
+  private long rows = 0;
+  private boolean clockStopped = false;
+  private boolean finished = false;
+
+  /**
+   * @param params the bound parameters by index from 1, or null if not captured
+   * @param event  the event to commit, or null if no recording wants it
+   */
+  StatementExecution(String name, String sql, Object[] params, ConnectionPool.Config database,
+      FlightEvents.Statement event, long start) {
+    this.operation = Metrics.currentOperation();
+    this.name = name;
+    this.sql = sql;
+    this.params = params;
+    this.database = database;
+    this.event = event;
+    this.start = start;
+    this.end = start;
+  }
+
+  /**
+   * Takes what the statement returned. A result set is returned wrapped so that its rows are
+   * counted as they are read; anything else finishes the execution.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T completed(T result) {
+    end = System.nanoTime();
+    if (event != null) {
+      event.end();
+    }
+    if (result instanceof ResultSet rs) {
+      List<StatementExecution> timed = TIMED.get();
+      if (timed == null) {
+        timed = new ArrayList<>();
+        TIMED.set(timed);
+      }
+      timed.add(this);
+      return (T) new RowCounter(rs);
+    }
+    rows = rowCount(result);
+    finish();
+    return result;
+  }
+
+  /**
+   * Stops the clocks of the queries on this thread at the last row read so far, because another
+   * statement is about to run.
+   */
+  static void stopClocks() {
+    List<StatementExecution> timed = TIMED.get();
+    if (timed != null && !timed.isEmpty()) {
+      for (StatementExecution query : timed) {
+        query.clockStopped = true;
+      }
+      timed.clear();
+    }
+  }
+
+  boolean finished() {
+    return finished;
+  }
+
+  /**
+   * Reports the execution unless it already was.
+   */
+  void finish() {
+    if (finished) {
+      return;
+    }
+    finished = true;
+    if (event != null) {
+      event.name = name;
+      event.rows = rows;
+      event.commit();
+    }
+    if (SlowLog.get().isSlow(end - start)) {
+      SlowLog.get().statement(operation, name, sql, params, end - start, rows, database);
+    }
+  }
+
+  // The result set handed out, counting rows and moving the clock as they are read
+  private final class RowCounter extends DelegatingResultSet {
+    RowCounter(ResultSet rs) {
+      super(rs);
+    }
+
+    @Override
+    public boolean next() throws SQLException {
+      boolean more = rs.next();
+      if (!clockStopped) {
+        end = System.nanoTime();
+        if (event != null) {
+          event.end();
+        }
+      }
+      if (more) {
+        rows++;
+      } else {
+        finish();
+      }
+      return more;
+    }
+
+    @Override
+    public void close() throws SQLException {
+      rs.close();
+      finish();
+    }
+  }
+
+  // Rows changed by an update or batch
+  private static long rowCount(Object result) {
+    if (result instanceof Integer n) {
+      return n;
+    }
+    if (result instanceof Long n) {
+      return n;
+    }
+    long rows = 0;
+    if (result instanceof int[] counts) {
+      for (int n : counts) {
+        rows += Math.max(n, 0);
+      }
+    } else if (result instanceof long[] counts) {
+      for (long n : counts) {
+        rows += Math.max(n, 0);
+      }
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,191 @@
+package flightapp;
+
+import java.lang.management.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+
+/**
+ * Where one command's time went: a span for every database round trip and password hash it made,
+ * and a mark for every retry, summed up as e.g.
+ * {@code search: 14 round trips, 3.0 ms CPU, 41.2 ms DB, 45.9 ms total; 12 x FID_VALUES 30.1 ms, ...}.
+ * The per-statement counts at the end show how many of the round trips were the same statement
+ * run again and again.
+ *
+ * A trace is kept only for commands that want one: those of a session that turned on tracing with
+ * the {@code trace on} command, which get the summary appended to their response, and a random
+ * sample of all commands, set by {@code flightapp.trace.sample} (a fraction, 0 by default), whose
+ * full traces are written to {@code flightapp.trace.file} (trace.log by default) in the background.
+ * Other commands pay only for checking whether a trace is running.
+ *
+ * A trace belongs to the thread running the command; work the command hands to other threads is
+ * not seen, except for password hashes, whose spans are recorded by the thread waiting for them.
+ * CPU time is the command thread's own, so it leaves out the hashing. The JVM does not measure it
+ * for virtual threads, such as those of the blocking server, where it shows as {@code n/a CPU}.
+ */
+final class Trace {
+  static final String SAMPLE_PROPERTY = "flightapp.trace.sample";
+  static final String FILE_PROPERTY = "flightapp.trace.file";
+
+  private static final double SAMPLE = Double.parseDouble(System.getProperty(SAMPLE_PROPERTY, "0"));
+  private static final RollingLog<Trace> FILE = SAMPLE <= 0 ? null
+      : new RollingLog<>(Paths.get(System.getProperty(FILE_PROPERTY, "trace.log")),
+          10 * 1024 * 1024, 5, "trace-writer", Trace::detail);
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+  private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+  private static final String STATEMENT = "statement";
+  private static final String HASH = "hash";
+  private static final String RETRY = "retry";
+
+  /**
+   * @param offsetNanos when it started, from the start of the command
+   */
+  private record Span(String kind, String name, long offsetNanos, long nanos) {
+  }
+
+  private final String command;
+  private final Instant at = Instant.now();
+  private final long start = System.nanoTime();
+  private final long cpuStart = cpuTime();
+  private final List<Span> spans = new ArrayList<>();
+  private final boolean sampled;
+  private long nanos;
+  // -1 if the thread's CPU time is not measured
+  private long cpuNanos;
+
+  private Trace(String command, boolean sampled) {
+    this.command = command;
+    this.sampled = sampled;
+  }
+
+  /**
+   * Whether the next command should be traced for the trace file.
+   */
+  static boolean sample() {
+    return FILE != null && Math.random() < SAMPLE;
+  }
+
+  /**
+   * Starts tracing a command on this thread.
+   *
+   * @param sampled whether to write the trace to the trace file when it stops
+   */
+  static Trace start(String command, boolean sampled) {
+    Trace trace = new Trace(command, sampled);
+    CURRENT.set(trace);
+    return trace;
+  }
+
+  /**
+   * Stops tracing, writing the trace to the trace file if it was sampled.
+   */
+  void stop() {
+    nanos = System.nanoTime() - start;
+    long cpuEnd = cpuTime();
+    cpuNanos = cpuStart < 0 || cpuEnd < 0 ? -1 : cpuEnd - cpuStart;
+    CURRENT.remove();
+    if (sampled) {
+      FILE.add(this);
+    }
+  }
+
+  /**
+   * Records a round trip: a statement execution, commit or rollback.
+   */
+  static void roundTrip(String name, long startNanos, long nanos) {
+    record(STATEMENT, name, startNanos, nanos);
+  }
+
+  /**
+   * Records a password hash, with the time spent hashing.
+   */
+  static void hash(String algorithm, long startNanos, long nanos) {
+    record(HASH, algorithm, startNanos, nanos);
+  }
+
+  /**
+   * Records that a transaction is being tried again.
+   */
+  static void retry() {
+    record(RETRY, "", System.nanoTime(), 0);
+  }
+
+  private static void record(String kind, String name, long startNanos, long nanos) {
+    Trace trace = CURRENT.get();
+    if (trace != null) {
+      trace.spans.add(new Span(kind, name, startNanos - trace.start, nanos));
+    }
+  }
+
+  /**
+   * The breakdown of the command on one line, without a newline.
+   */
+  String summary() {
+    int roundTrips = 0;
+    int hashes = 0;
+    int retries = 0;
+    long dbNanos = 0;
+    long hashNanos = 0;
+    // Count and time of each statement, most time first
+    Map<String, long[]> statements = new HashMap<>();
+    for (Span span : spans) {
+      switch (span.kind()) {
+        case STATEMENT -> {
+          roundTrips++;
+          dbNanos += span.nanos();
+          long[] s = statements.computeIfAbsent(span.name(), k -> new long[2]);
+          s[0]++;
+          s[1] += span.nanos();
+        }
+        case HASH -> {
+          hashes++;
+          hashNanos += span.nanos();
+        }
+        default -> retries++;
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    sb.append(command).append(": ").append(roundTrips).append(" round trips, ")
+        .append(cpuNanos < 0 ? "n/a" : millis(cpuNanos)).append(" CPU, ")
+        .append(millis(dbNanos)).append(" DB");
+    if (hashes > 0) {
+      sb.append(", ").append(hashes).append(hashes == 1 ? " hash " : " hashes ")
+          .append(millis(hashNanos));
+    }
+    if (retries > 0) {
+      sb.append(", ").append(retries).append(retries == 1 ? " retry" : " retries");
+    }
+    sb.append(", ").append(millis(nanos)).append(" total");
+    String separator = "; ";
+    List<Map.Entry<String, long[]>> byTime = new ArrayList<>(statements.entrySet());
+    byTime.sort((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]));
+    for (Map.Entry<String, long[]> e : byTime) {
+      sb.append(separator).append(e.getValue()[0]).append(" x ").append(e.getKey()).append(" ")
+          .append(millis(e.getValue()[1]));
+      separator = ", ";
+    }
+    return sb.toString();
+  }
+
+  // The summary, then one line per span; runs on the trace file's writer thread
+  private String detail() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(at).append(" ").append(summary()).append("\n");
+    for (Span span : spans) {
+      sb.append(String.format("  +%.3f ms %-9s %-30s %s\n", span.offsetNanos() / 1e6,
+          span.kind(), span.name(), millis(span.nanos())));
+    }
+    return sb.toString();
+  }
+
+  private static String millis(long nanos) {
+    return String.format("%.1f ms", nanos / 1e6);
+  }
+
+  // -1 if not measured, as for a virtual thread
+  private static long cpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+  }
+}
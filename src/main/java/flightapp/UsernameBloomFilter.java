@@ -0,0 +1,92 @@
+package flightapp;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Case-insensitive Bloom filter over the usernames known to exist.
+ *
+ * {@link #mightContain(String)} never returns false for a name that was added, but may return
+ * true for a name that was not. A false answer therefore means the name is definitely unused as
+ * far as this process has seen, which lets account creation skip its existence query; a true
+ * answer only means the database has to be asked. Safe for concurrent use.
+ */
+public class UsernameBloomFilter {
+  private final AtomicLongArray bits;
+  private final int numBits;
+  private final int numHashes;
+
+  /**
+   * Sizes the filter to hold {@code expectedNames} names with the given false positive rate.
+   */
+  public UsernameBloomFilter(int expectedNames, double falsePositiveRate) {
+    double ln2 = Math.log(2);
+    long m = (long) Math.ceil(-expectedNames * Math.log(falsePositiveRate) / (ln2 * ln2));
+    this.numBits = (int) Math.max(64, Math.min(m, Integer.MAX_VALUE - 63));
+    this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedNames * ln2));
+    this.bits = new AtomicLongArray((numBits + 63) / 64);
+  }
+
+  /**
+   * Records that the name exists.
+   */
+  public void add(String username) {
+    long hash = hash(username);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < numHashes; i++) {
+      int bit = Math.floorMod(h1 + i * h2, numBits);
+      long mask = 1L << bit;
+      int word = bit >>> 6;
+      long old;
+      do {
+        old = bits.get(word);
+        if ((old & mask) != 0) {
+          break;
+        }
+      } while (!bits.compareAndSet(word, old, old | mask));
+    }
+  }
+
+  /**
+   * Returns false if the name was definitely never added.
+   */
+  public boolean mightContain(String username) {
+    long hash = hash(username);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < numHashes; i++) {
+      int bit = Math.floorMod(h1 + i * h2, numBits);
+      if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Forgets every name.
+   */
+  public void clear() {
+    for (int i = 0; i < bits.length(); i++) {
+      bits.set(i, 0);
+    }
+  }
+
+  /**
+   * 64-bit FNV-1a over the lower-cased name, finished with a MurmurHash3 mix so both halves are
+   * usable as independent hashes.
+   */
+  private static long hash(String username) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < username.length(); i++) {
+      h ^= Character.toLowerCase(username.charAt(i));
+      h *= 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
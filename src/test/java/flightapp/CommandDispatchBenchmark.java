@@ -0,0 +1,86 @@
+package flightapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+
+/**
+ * Throughput of turning command lines into the handler that runs them, without running it.
+ *
+ * {@code dispatch} is the current {@link CommandDispatcher}; {@code regexBaseline} is the way
+ * commands used to be handled, a regular expression compiled per command followed by a chain of
+ * string comparisons, kept here to compare against. Both go through the same mix of commands a
+ * session typically sends. Run with
+ * {@code mvn -P bench test-compile exec:java -Dexec.args="CommandDispatchBenchmark"}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class CommandDispatchBenchmark {
+  private static final String[] COMMANDS = {
+      "login user1 user1",
+      "search \"Seattle WA\" \"Boston MA\" 0 1 10",
+      "book 3",
+      "reservations",
+      "pay 1",
+      "cancel 1",
+      "create user2 hunter2 1000",
+      "search \"Kahului HI\" \"Los Angeles CA\" 1 14 5",
+      "resume 8f14e45fceea167a5a36dedd4bea2543",
+      "quit",
+  };
+
+  private int next = 0;
+
+  private String nextCommand() {
+    String command = COMMANDS[next];
+    next = (next + 1) % COMMANDS.length;
+    return command;
+  }
+
+  @Benchmark
+  public CommandDispatcher.Call dispatch() {
+    return CommandDispatcher.parse(nextCommand());
+  }
+
+  @Benchmark
+  public int regexBaseline() {
+    String[] tokens = regexTokenize(nextCommand().trim());
+    if (tokens.length == 0) {
+      return -1;
+    } else if (tokens[0].equals("login")) {
+      return tokens.length == 3 ? 0 : -1;
+    } else if (tokens[0].equals("resume")) {
+      return tokens.length == 2 ? 1 : -1;
+    } else if (tokens[0].equals("create")) {
+      return tokens.length == 4 ? 2 : -1;
+    } else if (tokens[0].equals("search")) {
+      return tokens.length == 6 ? 3 : -1;
+    } else if (tokens[0].equals("book")) {
+      return tokens.length == 2 ? 4 : -1;
+    } else if (tokens[0].equals("reservations")) {
+      return 5;
+    } else if (tokens[0].equals("pay")) {
+      return tokens.length == 2 ? 6 : -1;
+    } else if (tokens[0].equals("cancel")) {
+      return tokens.length == 2 ? 7 : -1;
+    } else if (tokens[0].equals("quit")) {
+      return 8;
+    }
+    return -1;
+  }
+
+  private static String[] regexTokenize(String command) {
+    Matcher m = Pattern.compile("\"([^\"]*)\"|(\\S+)").matcher(command);
+    List<String> tokens = new ArrayList<>();
+    while (m.find()) {
+      tokens.add(m.group(1) != null ? m.group(1) : m.group(2));
+    }
+    return tokens.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,85 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link CommandDispatcher#tokenize} splits commands exactly as the regular expression it replaced
+ * did on the trimmed line.
+ */
+public class CommandTokenizerTest {
+  private static final Pattern TOKEN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
+  private static String[] regexTokens(String command) {
+    Matcher m = TOKEN.matcher(command.trim());
+    List<String> tokens = new ArrayList<>();
+    while (m.find()) {
+      tokens.add(m.group(1) != null ? m.group(1) : m.group(2));
+    }
+    return tokens.toArray(new String[0]);
+  }
+
+  private static String[] tokens(String command) {
+    String[] tokens = new String[16];
+    int count = CommandDispatcher.tokenize(command, tokens);
+    return Arrays.copyOf(tokens, count);
+  }
+
+  @Test
+  public void sameAsRegex() {
+    String[] commands = {
+        "",
+        "   ",
+        "quit",
+        "login user1 user1",
+        "  login   user1\tuser1  \r\n",
+        "search \"Seattle WA\" \"Boston MA\" 0 1 10",
+        "search \"\" \"Boston MA\" 0 1 10",
+        "search \"Seattle WA \"Boston MA\" 0 1 10",
+        "search \"Seattle WA",
+        "a\"b c\" d",
+        "\"a b\"c",
+        "\"\"\"\"",
+        "x\u000By\fz",
+        "\u0001login user1\u0001 user1\u0001",
+        "create user2 hunter2 1000\u0000",
+        "pay 1",
+    };
+    for (String command : commands) {
+      assertArrayEquals(command, regexTokens(command), tokens(command));
+    }
+  }
+
+  @Test
+  public void randomCommands() {
+    char[] alphabet = {'a', 'b', ' ', '"', '\t', '\n', '\u0001', '\u000B', ' '};
+    Random random = new Random(414);
+    for (int i = 0; i < 10000; i++) {
+      char[] command = new char[random.nextInt(12)];
+      for (int j = 0; j < command.length; j++) {
+        command[j] = alphabet[random.nextInt(alphabet.length)];
+      }
+      String s = new String(command);
+      assertArrayEquals(s, regexTokens(s), tokens(s));
+    }
+  }
+
+  @Test
+  public void countsTokensBeyondCapacity() {
+    String[] tokens = new String[2];
+    assertEquals(4, CommandDispatcher.tokenize("book 1 2 3", tokens));
+    assertArrayEquals(new String[] {"book", "1"}, tokens);
+  }
+
+  @Test
+  public void tokenizesAnyCharSequence() {
+    String[] tokens = new String[4];
+    int count = CommandDispatcher.tokenize(new StringBuilder("cancel  7 "), tokens);
+    assertEquals(2, count);
+    assertArrayEquals(new String[] {"cancel", "7", null, null}, tokens);
+  }
+}
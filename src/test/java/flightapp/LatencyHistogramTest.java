@@ -0,0 +1,69 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * The bucket arithmetic of {@link LatencyHistogram}: buckets tile the non-negative longs without
+ * gaps or overlaps, and a value's bucket ends within the promised 3% of it.
+ */
+public class LatencyHistogramTest {
+  private static final int LAST = LatencyHistogram.bucket(Long.MAX_VALUE);
+
+  @Test
+  public void smallValuesGetABucketEach() {
+    for (int v = 0; v < 64; v++) {
+      assertEquals(v, LatencyHistogram.bucket(v));
+      assertEquals(v, LatencyHistogram.upperBound(v));
+    }
+  }
+
+  @Test
+  public void bucketsAreContiguous() {
+    assertEquals(0, LatencyHistogram.bucket(0));
+    for (int i = 0; i < LAST; i++) {
+      long upper = LatencyHistogram.upperBound(i);
+      assertEquals("upper bound of bucket " + i, i, LatencyHistogram.bucket(upper));
+      assertEquals("just past bucket " + i, i + 1, LatencyHistogram.bucket(upper + 1));
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LAST));
+  }
+
+  @Test
+  public void upperBoundIsWithinThreePercent() {
+    Random random = new Random(414);
+    for (int i = 0; i < 100000; i++) {
+      long value = random.nextLong() >>> (1 + random.nextInt(63));
+      long upper = LatencyHistogram.upperBound(LatencyHistogram.bucket(value));
+      assertTrue(value + " in a bucket ending at " + upper, upper >= value);
+      assertTrue(value + " in a bucket ending at " + upper, upper - value <= value / 32);
+    }
+  }
+
+  @Test
+  public void percentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.percentile(50));
+    for (int v = 1; v <= 10000; v++) {
+      histogram.record(v);
+    }
+    assertEquals(10000, histogram.count());
+    assertEquals(10000, histogram.max());
+    assertEquals(5000.5, histogram.mean(), 0);
+    long median = histogram.percentile(50);
+    assertTrue("median " + median, median >= 5000 && median <= 5000 + 5000 / 32);
+    assertEquals(10000, histogram.percentile(100));
+  }
+
+  @Test
+  public void negativeValuesCountAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    assertEquals(1, histogram.count());
+    assertEquals(0, histogram.max());
+    assertEquals(0, histogram.percentile(99));
+  }
+}
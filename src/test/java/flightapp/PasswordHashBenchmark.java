@@ -0,0 +1,44 @@
+package flightapp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login latency spent on password hashing at each cost setting.
+ *
+ * Each invocation does what a login does with the CPU: hash the password on the shared hashing
+ * pool with the stored salt and parameters. Run with
+ * {@code mvn -P bench test-compile exec:java -Dexec.args="PasswordHashBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class PasswordHashBenchmark {
+  @Param({"PBKDF2WithHmacSHA1", "PBKDF2WithHmacSHA256", "PBKDF2WithHmacSHA512"})
+  public String algorithm;
+
+  @Param({"10000", "65536", "210000", "600000"})
+  public int iterations;
+
+  private PasswordHasher hasher;
+  private PasswordHasher.Params params;
+  private byte[] salt;
+
+  @Setup
+  public void setup() {
+    hasher = PasswordHasher.forAvailableProcessors();
+    params = new PasswordHasher.Params(algorithm, iterations);
+    salt = new byte[16];
+    new SecureRandom().nextBytes(salt);
+  }
+
+  @Benchmark
+  public byte[] login() {
+    return hasher.hash("correct horse battery staple", salt, params);
+  }
+}
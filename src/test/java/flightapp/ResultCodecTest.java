@@ -0,0 +1,132 @@
+package flightapp;
+
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Every kind of {@link FlightResult} survives {@link ResultCodec} unchanged, including the numbers
+ * and strings the compact encoding treats specially.
+ */
+public class ResultCodecTest {
+  private static final Flight SEATTLE_BOSTON =
+      new Flight(1034748, 1, "AS", "24", "Seattle WA", "Boston MA", 322, 4, 677);
+  private static final Flight BOSTON_SEATTLE =
+      new Flight(60454, 14, "AS", "25", "Boston MA", "Seattle WA", 379, 0, 142);
+
+  private static FlightResult roundTrip(FlightResult result) {
+    return ResultCodec.decode(ResultCodec.encode(result));
+  }
+
+  @Test
+  public void searchResult() {
+    SearchResult result = new SearchResult(false, List.of(
+        new Itinerary(0, 322, List.of(SEATTLE_BOSTON)),
+        new Itinerary(1, 701, List.of(SEATTLE_BOSTON, BOSTON_SEATTLE))));
+    assertEquals(result, roundTrip(result));
+  }
+
+  @Test
+  public void failedSearch() {
+    assertEquals(SearchResult.FAILED, roundTrip(SearchResult.FAILED));
+  }
+
+  @Test
+  public void reservationsResult() {
+    ReservationsResult result = new ReservationsResult(ReservationsResult.Status.OK, List.of(
+        new Reservation(1, true, List.of(SEATTLE_BOSTON)),
+        new Reservation(2, false, List.of(SEATTLE_BOSTON, BOSTON_SEATTLE))));
+    assertEquals(result, roundTrip(result));
+  }
+
+  @Test
+  public void outcomes() {
+    for (BookingOutcome.Status status : BookingOutcome.Status.values()) {
+      BookingOutcome result = new BookingOutcome(status, 3, 17);
+      assertEquals(result, roundTrip(result));
+    }
+    for (PaymentOutcome.Status status : PaymentOutcome.Status.values()) {
+      PaymentOutcome result = new PaymentOutcome(status, 17, "user1", 323, 677);
+      assertEquals(result, roundTrip(result));
+    }
+    for (CancelOutcome.Status status : CancelOutcome.Status.values()) {
+      CancelOutcome result = new CancelOutcome(status, 17);
+      assertEquals(result, roundTrip(result));
+    }
+  }
+
+  @Test
+  public void extremeNumbers() {
+    int[] numbers = {0, -1, 1, 63, -64, 64, 8191, -8192, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    for (int n : numbers) {
+      BookingOutcome result = new BookingOutcome(BookingOutcome.Status.BOOKED, n, -n);
+      assertEquals(result, roundTrip(result));
+    }
+  }
+
+  @Test
+  public void nullUsernameDecodesEmpty() {
+    FlightResult decoded =
+        roundTrip(new PaymentOutcome(PaymentOutcome.Status.NOT_LOGGED_IN, 5, null, 0, 0));
+    assertEquals(new PaymentOutcome(PaymentOutcome.Status.NOT_LOGGED_IN, 5, "", 0, 0), decoded);
+  }
+
+  @Test
+  public void unicodeStrings() {
+    Flight flight = new Flight(1, 1, "ÅÄ", "7", "Zürich", "東京", 60, 1, 100);
+    SearchResult result = new SearchResult(false, List.of(new Itinerary(0, 60, List.of(flight))));
+    assertEquals(result, roundTrip(result));
+  }
+
+  @Test
+  public void repeatedStringsAreWrittenOnce() {
+    SearchResult once =
+        new SearchResult(false, List.of(new Itinerary(0, 322, List.of(SEATTLE_BOSTON))));
+    SearchResult twice = new SearchResult(false, List.of(
+        new Itinerary(0, 322, List.of(SEATTLE_BOSTON)),
+        new Itinerary(0, 322, List.of(SEATTLE_BOSTON))));
+    int first = ResultCodec.encode(once).length;
+    // The second itinerary repeats every string, each now a single byte
+    int perItinerary = ResultCodec.encode(twice).length - first;
+    assertTrue("second itinerary took " + perItinerary + " bytes", perItinerary < 20);
+    assertEquals(twice, roundTrip(twice));
+  }
+
+  @Test
+  public void resultsBackToBack() throws IOException {
+    List<FlightResult> results = List.of(
+        new SearchResult(false, List.of(new Itinerary(0, 322, List.of(SEATTLE_BOSTON)))),
+        new BookingOutcome(BookingOutcome.Status.BOOKED, 0, 1),
+        new PaymentOutcome(PaymentOutcome.Status.PAID, 1, "user1", 323, 677));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (FlightResult result : results) {
+      ResultCodec.write(result, out);
+    }
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    for (FlightResult result : results) {
+      assertEquals(result, ResultCodec.read(in));
+    }
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void truncatedMessage() {
+    byte[] message =
+        ResultCodec.encode(new PaymentOutcome(PaymentOutcome.Status.PAID, 1, "user1", 323, 677));
+    for (int length = 0; length < message.length; length++) {
+      try {
+        ResultCodec.decode(Arrays.copyOf(message, length));
+        fail("decoded the first " + length + " bytes");
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void unknownType() {
+    ResultCodec.decode(new byte[] {99, 0});
+  }
+}
@@ -0,0 +1,111 @@
+package flightapp;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Opens thousands of simultaneous client sessions against a running {@link FlightServer}.
+ *
+ * Every client connects, and once all of them are connected at the same time, each creates an
+ * account, logs in, searches, books and lists its reservations, then quits. The generator
+ * reports how many sessions were connected at once, how many were turned away, and the latency
+ * of each command. Start the server with {@code java -jar ... server}, clear the tables, and run
+ * {@code mvn -P load test-compile exec:java -Dexec.args="<host> <port> <clients>"}.
+ */
+public class ServerLoadGenerator {
+  private static final String[] COMMANDS = {
+      "create %s pw 100000",
+      "login %s pw",
+      "search \"Seattle WA\" \"Boston MA\" 1 1 1",
+      "book 0",
+      "reservations",
+      "quit"
+  };
+
+  public static void main(String[] args) throws Exception {
+    String host = args.length > 0 ? args[0] : "localhost";
+    int port = args.length > 1 ? Integer.parseInt(args[1]) : FlightServer.DEFAULT_PORT;
+    int clients = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+    String prefix = "load" + System.currentTimeMillis() % 100000 + "_";
+
+    LatencyStats[] latencies = new LatencyStats[COMMANDS.length];
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyStats();
+    }
+    CountDownLatch allConnected = new CountDownLatch(clients);
+    AtomicInteger connected = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+    AtomicInteger rejected = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+
+    long start = System.nanoTime();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int c = 0; c < clients; c++) {
+        String username = prefix + c;
+        executor.submit(() -> {
+          boolean counted = false;
+          try (Socket socket = new Socket(host, port);
+              BufferedReader in = new BufferedReader(
+                  new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+              Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)) {
+            peak.accumulateAndGet(connected.incrementAndGet(), Math::max);
+            counted = true;
+            allConnected.countDown();
+            allConnected.await();
+
+            for (int i = 0; i < COMMANDS.length; i++) {
+              long sent = System.nanoTime();
+              out.write(String.format(COMMANDS[i], username) + "\n");
+              out.flush();
+              String response = readResponse(in);
+              latencies[i].record(System.nanoTime() - sent);
+              if (response == null) {
+                failed.incrementAndGet();
+                return null;
+              }
+              if (response.startsWith(FlightServer.BUSY)) {
+                rejected.incrementAndGet();
+                return null;
+              }
+            }
+          } catch (IOException e) {
+            failed.incrementAndGet();
+            if (!counted) {
+              allConnected.countDown();
+            }
+          } finally {
+            if (counted) {
+              connected.decrementAndGet();
+            }
+          }
+          return null;
+        });
+      }
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+    System.out.println(clients + " clients in " + elapsedMillis + " ms: peak simultaneous sessions="
+        + peak.get() + " rejected=" + rejected.get() + " failed=" + failed.get());
+    for (int i = 0; i < COMMANDS.length; i++) {
+      System.out.println(String.format("%-45s %s", String.format(COMMANDS[i], "<user>"), latencies[i]));
+    }
+  }
+
+  /**
+   * Reads one response, which ends with an empty line; returns null if the server hung up first.
+   */
+  private static String readResponse(BufferedReader in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (line.isEmpty()) {
+        return sb.toString();
+      }
+      sb.append(line).append("\n");
+    }
+    return null;
+  }
+}